@@ -0,0 +1,285 @@
+package com.larsgeorge.hbase.tools;
+
+import java.io.PrintStream;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Estimates the number of distinct keys and the most referenced keys in constant memory. The
+ * distinct count comes from a HyperLogLog, the reference counts from a count-min sketch, and the
+ * most referenced keys are tracked as a bounded list of candidates with the highest estimates.
+ * <p/>
+ * Each thread adds to its own sketches, so no locking is needed while scanning. The sketches of
+ * all threads are merged at the end, which gives the same result as a single sketch would have.
+ */
+class ApproximateStatistics {
+
+  /** The probability that a count exceeds the error bound of the count-min sketch. */
+  private static final double DELTA = 0.01;
+
+  private int precision;
+  private int width;
+  private int depth;
+  private int topN;
+  private final List<Sketch> partials = new ArrayList<Sketch>();
+  private final ThreadLocal<Sketch> sketch = new ThreadLocal<Sketch>() {
+    @Override
+    protected Sketch initialValue() {
+      Sketch s = new Sketch();
+      synchronized (partials) {
+        partials.add(s);
+      }
+      return s;
+    }
+  };
+  private Sketch merged = null;
+
+  /**
+   * Creates a new instance of this class.
+   *
+   * @param precision The number of index bits of the HyperLogLog, which uses 2^precision
+   *   registers of one byte each.
+   * @param epsilon The error of a count relative to the total number of matches.
+   * @param topN The number of most referenced keys to report.
+   */
+  ApproximateStatistics(int precision, double epsilon, int topN) {
+    if (precision < 4 || precision > 18)
+      throw new IllegalArgumentException("Precision must be between 4 and 18: " + precision);
+    if (epsilon <= 0 || epsilon >= 1)
+      throw new IllegalArgumentException("Error must be between 0 and 1: " + epsilon);
+    this.precision = precision;
+    this.width = (int) Math.ceil(Math.E / epsilon);
+    this.depth = (int) Math.ceil(Math.log(1 / DELTA));
+    this.topN = topN;
+  }
+
+  /**
+   * Adds one reference to a key, using the sketch of the calling thread.
+   *
+   * @param key The key.
+   */
+  public void add(String key) {
+    sketch.get().add(key);
+  }
+
+  /**
+   * Merges the sketches of all threads. Must be called once all keys are added.
+   */
+  public void finish() {
+    merged = new Sketch();
+    synchronized (partials) {
+      for (Sketch s : partials) merged.merge(s);
+    }
+  }
+
+  /**
+   * Returns the estimated number of distinct keys.
+   */
+  public long getDistinctEstimate() {
+    return merged.hll.estimate();
+  }
+
+  /**
+   * Returns the relative standard error of the distinct count.
+   */
+  public double getDistinctError() {
+    return 1.04 / Math.sqrt(1 << precision);
+  }
+
+  /**
+   * Returns the total number of references added.
+   */
+  public long getTotal() {
+    return merged.cms.total;
+  }
+
+  /**
+   * Returns the amount a count may be over the true count, with the probability given by
+   * {@link #getConfidence()}. Counts are never under the true count.
+   */
+  public long getCountError() {
+    return (long) Math.ceil(Math.E / width * merged.cms.total);
+  }
+
+  public double getConfidence() {
+    return 1 - Math.exp(-depth);
+  }
+
+  /**
+   * Returns the keys with the highest estimated counts, most referenced first.
+   *
+   * @return The keys mapped to their estimated counts, in descending order of the counts.
+   */
+  public List<Map.Entry<String, Long>> getTopKeys() {
+    Set<String> keys = new HashSet<String>();
+    synchronized (partials) {
+      for (Sketch s : partials) keys.addAll(s.candidates.keySet());
+    }
+    Map<String, Long> estimates = new HashMap<String, Long>();
+    for (String key : keys) estimates.put(key, merged.cms.estimate(hash(key)));
+    List<Map.Entry<String, Long>> top = new ArrayList<Map.Entry<String, Long>>(
+      estimates.entrySet());
+    Collections.sort(top, new Comparator<Map.Entry<String, Long>>() {
+      @Override
+      public int compare(Map.Entry<String, Long> e1, Map.Entry<String, Long> e2) {
+        int res = e2.getValue().compareTo(e1.getValue());
+        return res != 0 ? res : e1.getKey().compareTo(e2.getKey());
+      }
+    });
+    return top.size() > topN ? top.subList(0, topN) : top;
+  }
+
+  /**
+   * Prints the estimates along with their error bounds.
+   *
+   * @param out The stream to print to.
+   */
+  public void print(PrintStream out) {
+    long distinct = getDistinctEstimate();
+    double error = getDistinctError();
+    out.println(String.format("Approximate number of unique matches: %d (standard error " +
+      "%.2f%%, i.e. +/- %d)", distinct, error * 100, Math.round(distinct * error)));
+    out.println(String.format("Most referenced keys (estimates over the true count by at " +
+      "most %d with %.0f%% confidence):", getCountError(), getConfidence() * 100));
+    for (Map.Entry<String, Long> entry : getTopKeys())
+      out.println(String.format("%10d  %s", entry.getValue(), entry.getKey()));
+  }
+
+  /**
+   * Hashes a key to 64 bits, using FNV-1a followed by the finalizer of MurmurHash3 to spread
+   * the bits evenly, as both sketches need.
+   */
+  static long hash(String key) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < key.length(); i++) {
+      h ^= key.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  /**
+   * Counts the distinct values by keeping, for every bucket selected by the top bits of the
+   * hash, the maximum position of the first set bit in the remaining bits.
+   */
+  class HyperLogLog {
+    private byte[] registers = new byte[1 << precision];
+
+    void add(long hash) {
+      int index = (int) (hash >>> (64 - precision));
+      // the guard bit limits the rank when all remaining bits are zero
+      long rest = (hash << precision) | (1L << (precision - 1));
+      byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+      if (rank > registers[index]) registers[index] = rank;
+    }
+
+    long estimate() {
+      int m = registers.length;
+      double sum = 0;
+      int zeros = 0;
+      for (byte r : registers) {
+        sum += 1.0 / (1L << r);
+        if (r == 0) zeros++;
+      }
+      double alpha = 0.7213 / (1 + 1.079 / m);
+      double estimate = alpha * m * m / sum;
+      // linear counting is more accurate while many registers are still empty
+      if (estimate <= 2.5 * m && zeros > 0) estimate = m * Math.log((double) m / zeros);
+      return Math.round(estimate);
+    }
+
+    void merge(HyperLogLog other) {
+      for (int i = 0; i < registers.length; i++) {
+        if (other.registers[i] > registers[i]) registers[i] = other.registers[i];
+      }
+    }
+  }
+
+  /**
+   * Counts the references of each key in a table of counters, one row per hash function. The
+   * estimate is the minimum over the rows, which is never below the true count.
+   */
+  class CountMinSketch {
+    private long[][] counters = new long[depth][width];
+    private long total = 0;
+
+    void add(long hash) {
+      int h1 = (int) hash;
+      int h2 = (int) (hash >>> 32);
+      for (int i = 0; i < depth; i++)
+        counters[i][((h1 + i * h2) & Integer.MAX_VALUE) % width]++;
+      total++;
+    }
+
+    long estimate(long hash) {
+      int h1 = (int) hash;
+      int h2 = (int) (hash >>> 32);
+      long min = Long.MAX_VALUE;
+      for (int i = 0; i < depth; i++)
+        min = Math.min(min, counters[i][((h1 + i * h2) & Integer.MAX_VALUE) % width]);
+      return min;
+    }
+
+    void merge(CountMinSketch other) {
+      for (int i = 0; i < depth; i++) {
+        for (int j = 0; j < width; j++) counters[i][j] += other.counters[i][j];
+      }
+      total += other.total;
+    }
+  }
+
+  /**
+   * The sketches of one thread, with the candidates for the most referenced keys.
+   */
+  class Sketch {
+    private HyperLogLog hll = new HyperLogLog();
+    private CountMinSketch cms = new CountMinSketch();
+    // the candidates, with the estimate they had when last seen, ordered by that estimate
+    private Map<String, Long> candidates = new HashMap<String, Long>();
+    private TreeSet<Map.Entry<String, Long>> ranking = new TreeSet<Map.Entry<String, Long>>(
+      new Comparator<Map.Entry<String, Long>>() {
+        @Override
+        public int compare(Map.Entry<String, Long> e1, Map.Entry<String, Long> e2) {
+          int res = e1.getValue().compareTo(e2.getValue());
+          return res != 0 ? res : e1.getKey().compareTo(e2.getKey());
+        }
+      });
+
+    void add(String key) {
+      long hash = hash(key);
+      hll.add(hash);
+      cms.add(hash);
+      long estimate = cms.estimate(hash);
+      Long previous = candidates.get(key);
+      if (previous != null) {
+        ranking.remove(new AbstractMap.SimpleEntry<String, Long>(key, previous));
+      } else if (candidates.size() >= Math.max(topN * 4, 64)) {
+        // replace the weakest candidate, but only by a key referenced more often
+        Map.Entry<String, Long> weakest = ranking.first();
+        if (weakest.getValue() >= estimate) return;
+        ranking.pollFirst();
+        candidates.remove(weakest.getKey());
+      }
+      candidates.put(key, estimate);
+      ranking.add(new AbstractMap.SimpleEntry<String, Long>(key, estimate));
+    }
+
+    void merge(Sketch other) {
+      hll.merge(other.hll);
+      cms.merge(other.cms);
+    }
+  }
+}
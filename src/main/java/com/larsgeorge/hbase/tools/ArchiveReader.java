@@ -0,0 +1,320 @@
+package com.larsgeorge.hbase.tools;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Streams files out of archives, without extracting anything to disk. The path names the
+ * archive, followed by the path of the entry, separated by "!", and archives may be nested,
+ * for example <code>hbase-2.5.0-bin.tar.gz!lib/hbase-common-*.jar!hbase-default.xml</code>.
+ * Supported are tar archives, optionally gzip compressed, and zip based archives such as jars.
+ * <p/>
+ * The entry paths are globs, matched like <code>.gitignore</code> patterns at any directory
+ * level, so that the top-level directory of a release tarball can be left out. A leading slash
+ * anchors the pattern at the root of the archive. When several entries match, they are tried
+ * in archive order, and the first one holding the rest of the path is used.
+ */
+class ArchiveReader {
+
+  static final String SEPARATOR = "!";
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int TAR_BLOCK = 512;
+
+  /**
+   * Checks whether the given path points into an archive, i.e. starts with the path of an
+   * existing file followed by the separator.
+   */
+  static boolean isArchivePath(String path) {
+    int pos = path.indexOf(SEPARATOR);
+    return pos > 0 && new File(path.substring(0, pos)).isFile();
+  }
+
+  /**
+   * Opens the entry the path points to, streaming it through all enclosing archives. Closing
+   * the returned stream closes the archives as well.
+   *
+   * @param path The archive path.
+   * @return The stream of the entry.
+   * @throws IOException When an archive cannot be read, or no entry matches.
+   */
+  static InputStream open(String path) throws IOException {
+    String[] parts = path.split(SEPARATOR);
+    File archive = new File(parts[0]);
+    Pattern[] patterns = new Pattern[parts.length - 1];
+    for (int i = 1; i < parts.length; i++) patterns[i - 1] = compile(parts[i]);
+    if (patterns.length == 0) throw new IOException("No entry given in " + path);
+    final Deque<EntryInputStream> open = new ArrayDeque<EntryInputStream>();
+    boolean found = false;
+    try {
+      open.push(openArchive(new BufferedInputStream(new FileInputStream(archive), BUFFER_SIZE),
+        archive.getName()));
+      found = find(open, patterns, 0);
+      if (!found) throw new FileNotFoundException("No entry matching " + path);
+    } finally {
+      if (!found) closeAll(open);
+    }
+    final EntryInputStream entry = open.peek();
+    return new InputStream() {
+      @Override
+      public int read() throws IOException {
+        return entry.read();
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        return entry.read(b, off, len);
+      }
+
+      @Override
+      public void close() throws IOException {
+        closeAll(open);
+      }
+    };
+  }
+
+  /**
+   * Moves the archive on top of the stack to the entry matching the pattern of the given level,
+   * descending into nested archives for the levels below.
+   *
+   * @return <code>true</code> when the entry of the last level was found.
+   */
+  private static boolean find(Deque<EntryInputStream> open, Pattern[] patterns, int level)
+    throws IOException {
+    EntryInputStream entries = open.peek();
+    String name;
+    while ((name = entries.nextEntry()) != null) {
+      if (!patterns[level].matcher(name).matches()) continue;
+      if (level == patterns.length - 1) return true;
+      // the nested archive must not close the one it is read from
+      open.push(openArchive(new CloseShieldInputStream(entries), name));
+      if (find(open, patterns, level + 1)) return true;
+      open.pop().close();
+    }
+    return false;
+  }
+
+  private static void closeAll(Deque<EntryInputStream> open) {
+    while (!open.isEmpty()) IOUtils.closeQuietly(open.pop());
+  }
+
+  /**
+   * Converts an entry glob into a pattern, matching at any directory level unless anchored
+   * with a leading slash.
+   */
+  private static Pattern compile(String glob) {
+    if (glob.startsWith("/"))
+      return Pattern.compile(ExclusionEngine.globToRegex(glob.substring(1)));
+    return Pattern.compile("(?:.*/)?" + ExclusionEngine.globToRegex(glob));
+  }
+
+  /**
+   * Opens the archive of the given name, its type given by the extension.
+   */
+  private static EntryInputStream openArchive(InputStream in, String name) throws IOException {
+    String lower = name.toLowerCase();
+    if (lower.endsWith(".tar.gz") || lower.endsWith(".tgz"))
+      return new TarEntries(new GZIPInputStream(in, BUFFER_SIZE));
+    if (lower.endsWith(".tar")) return new TarEntries(in);
+    if (lower.endsWith(".jar") || lower.endsWith(".zip") || lower.endsWith(".war") ||
+      lower.endsWith(".ear")) return new ZipEntries(new ZipInputStream(in));
+    in.close();
+    throw new IOException("Unsupported archive type: " + name);
+  }
+
+  /**
+   * An archive read entry by entry, where reading returns the data of the current entry.
+   */
+  private abstract static class EntryInputStream extends InputStream {
+
+    /**
+     * Moves on to the next file, skipping directories and links.
+     *
+     * @return The path of the file, or <code>null</code> at the end of the archive.
+     * @throws IOException When reading the archive fails.
+     */
+    abstract String nextEntry() throws IOException;
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      int n = read(b, 0, 1);
+      return n < 0 ? -1 : b[0] & 0xff;
+    }
+  }
+
+  private static class ZipEntries extends EntryInputStream {
+    private ZipInputStream zip;
+
+    ZipEntries(ZipInputStream zip) {
+      this.zip = zip;
+    }
+
+    @Override
+    String nextEntry() throws IOException {
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) {
+        if (!entry.isDirectory()) return entry.getName();
+      }
+      return null;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      return zip.read(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      zip.close();
+    }
+  }
+
+  /**
+   * Reads tar archives in the ustar format, with the GNU and PAX extensions for long names.
+   */
+  private static class TarEntries extends EntryInputStream {
+    private InputStream in;
+    private byte[] header = new byte[TAR_BLOCK];
+    private long remaining = 0;
+    private long padding = 0;
+
+    TarEntries(InputStream in) {
+      this.in = in;
+    }
+
+    @Override
+    String nextEntry() throws IOException {
+      String longName = null;
+      while (true) {
+        IOUtils.skipFully(in, remaining + padding);
+        remaining = 0;
+        padding = 0;
+        if (!readHeader()) return null;
+        long size = parseNumber(header, 124, 12);
+        char type = (char) header[156];
+        remaining = size;
+        padding = (TAR_BLOCK - size % TAR_BLOCK) % TAR_BLOCK;
+        if (type == 'L') {
+          longName = trim(readData(size));
+        } else if (type == 'x') {
+          String paxName = parsePaxPath(readData(size));
+          if (paxName != null) longName = paxName;
+        } else if (type == '0' || type == '\0' || type == '7') {
+          String name = longName != null ? longName : parseName();
+          return name.startsWith("./") ? name.substring(2) : name;
+        } else {
+          // directories, links, global headers, and the like
+          longName = null;
+        }
+      }
+    }
+
+    /**
+     * Reads the next header block, returning <code>false</code> at the end marker or the end
+     * of the stream.
+     */
+    private boolean readHeader() throws IOException {
+      int n = IOUtils.read(in, header);
+      if (n == 0) return false;
+      if (n < TAR_BLOCK) throw new EOFException("Truncated tar header");
+      for (byte b : header) if (b != 0) return true;
+      return false;
+    }
+
+    /**
+     * Reads the data of an extension header entry.
+     */
+    private String readData(long size) throws IOException {
+      if (size > Integer.MAX_VALUE) throw new IOException("Tar extension header too large");
+      byte[] data = new byte[(int) size];
+      IOUtils.readFully(in, data);
+      remaining = 0;
+      return new String(data, "UTF-8");
+    }
+
+    private String parseName() throws IOException {
+      String name = field(100, 0);
+      // the ustar format splits long names into a prefix and the name
+      if (field(6, 257).startsWith("ustar")) {
+        String prefix = field(155, 345);
+        if (prefix.length() > 0) name = prefix + "/" + name;
+      }
+      return name;
+    }
+
+    private String field(int length, int offset) throws IOException {
+      int end = offset;
+      while (end < offset + length && header[end] != 0) end++;
+      return new String(header, offset, end - offset, "UTF-8");
+    }
+
+    /**
+     * Returns the path of the records of a PAX header, each formatted as
+     * <code>&lt;length&gt; &lt;key&gt;=&lt;value&gt;\n</code>.
+     */
+    private static String parsePaxPath(String records) {
+      for (String record : records.split("\n")) {
+        int space = record.indexOf(' ');
+        if (space > 0 && record.startsWith("path=", space + 1))
+          return record.substring(space + 6);
+      }
+      return null;
+    }
+
+    private static String trim(String s) {
+      int end = s.indexOf('\0');
+      return (end >= 0 ? s.substring(0, end) : s).trim();
+    }
+
+    /**
+     * Parses a numeric header field, which is octal, or binary for large values.
+     */
+    private static long parseNumber(byte[] header, int offset, int length) {
+      long value = 0;
+      if ((header[offset] & 0x80) != 0) {
+        for (int i = offset + 1; i < offset + length; i++)
+          value = (value << 8) | (header[i] & 0xff);
+        return value;
+      }
+      for (int i = offset; i < offset + length; i++) {
+        byte b = header[i];
+        if (b == 0) break;
+        if (b == ' ') {
+          if (value == 0) continue;
+          break;
+        }
+        value = (value << 3) + (b - '0');
+      }
+      return value;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (remaining <= 0) return -1;
+      int n = in.read(b, off, (int) Math.min(len, remaining));
+      if (n < 0) throw new EOFException("Truncated tar entry");
+      remaining -= n;
+      return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,229 @@
+package com.larsgeorge.hbase.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.LineIterator;
+
+/**
+ * Runs many differ and finder jobs inside one JVM, as listed in a manifest. Each line of the
+ * manifest is one job, giving the tool, the file the job output is written to, and the same
+ * arguments the tool takes on the command line, for example:
+ * <pre>
+ *   # tool   output          arguments
+ *   differ   diff-0.96.txt   -q hbase-0.94.xml 0.94 hbase-0.96.xml 0.96
+ *   finder   keys-0.96.txt   -d /src/hbase-0.96 -s -u
+ * </pre>
+ * Arguments containing spaces can be quoted with single or double quotes. Empty lines and lines
+ * starting with <code>#</code> are skipped. The jobs run on a pool of workers, sharing the
+ * compiled templates, lookup tables, and parsed configurations.
+ */
+public class BatchRunner implements Runnable {
+
+  @Parameter(names = { "-h", "--help" }, description = "Print this help", help = true)
+  private boolean printHelp = false;
+  @Parameter(names = { "-m", "--manifest" }, description = "The manifest listing the jobs",
+    required = true)
+  private String manifest = null;
+  @Parameter(names = { "-p", "--threads" }, description = "Number of jobs to run in parallel")
+  private int numThreads = Runtime.getRuntime().availableProcessors();
+  @Parameter(names = { "-o", "--outputDir" }, description = "Directory relative output files " +
+    "are written to, defaults to the current directory")
+  private String outputDir = null;
+
+  private Map<String, Configuration> configCache = new ConcurrentHashMap<String, Configuration>();
+  private int numFailed = 0;
+
+  /**
+   * A single line of the manifest.
+   */
+  static class Job {
+    private int line;
+    private String tool;
+    private File output;
+    private String[] args;
+
+    Job(int line, String tool, File output, String[] args) {
+      this.line = line;
+      this.tool = tool;
+      this.output = output;
+      this.args = args;
+    }
+
+    @Override
+    public String toString() {
+      return "line " + line + " (" + tool + " -> " + output + ")";
+    }
+  }
+
+  /**
+   * Splits a manifest line into its arguments, honoring quotes.
+   *
+   * @param line The line to split.
+   * @return The list of arguments.
+   */
+  static List<String> tokenize(String line) {
+    List<String> tokens = new ArrayList<String>();
+    StringBuilder token = null;
+    char quote = 0;
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (quote != 0) {
+        if (c == quote) quote = 0; else token.append(c);
+      } else if (c == '"' || c == '\'') {
+        quote = c;
+        if (token == null) token = new StringBuilder();
+      } else if (Character.isWhitespace(c)) {
+        if (token != null) tokens.add(token.toString());
+        token = null;
+      } else {
+        if (token == null) token = new StringBuilder();
+        token.append(c);
+      }
+    }
+    if (quote != 0) throw new IllegalArgumentException("Unbalanced quote in: " + line);
+    if (token != null) tokens.add(token.toString());
+    return tokens;
+  }
+
+  private List<Job> readManifest() throws IOException {
+    List<Job> jobs = new ArrayList<Job>();
+    LineIterator it = FileUtils.lineIterator(new File(manifest), "UTF-8");
+    try {
+      int n = 0;
+      while (it.hasNext()) {
+        String line = it.nextLine().trim();
+        n++;
+        if (line.length() == 0 || line.startsWith("#")) continue;
+        List<String> tokens = tokenize(line);
+        if (tokens.size() < 2)
+          throw new IllegalArgumentException("Line " + n + ": expected a tool and output file");
+        String tool = tokens.get(0);
+        if (!tool.equals("differ") && !tool.equals("finder"))
+          throw new IllegalArgumentException("Line " + n + ": unknown tool \"" + tool + "\"");
+        File output = new File(tokens.get(1));
+        if (!output.isAbsolute() && outputDir != null) output = new File(outputDir, tokens.get(1));
+        List<String> args = tokens.subList(2, tokens.size());
+        jobs.add(new Job(n, tool, output, args.toArray(new String[args.size()])));
+      }
+    } finally {
+      it.close();
+    }
+    return jobs;
+  }
+
+  /**
+   * Runs a single job, writing all of its output to the output file of the job.
+   *
+   * @param job The job to run.
+   * @throws Exception When the job fails.
+   */
+  private void runJob(Job job) throws Exception {
+    File parent = job.output.getAbsoluteFile().getParentFile();
+    if (parent != null && !parent.isDirectory()) parent.mkdirs();
+    PrintStream out = new PrintStream(new BufferedOutputStream(
+      new FileOutputStream(job.output), 64 * 1024));
+    try {
+      if (job.tool.equals("differ")) {
+        DifferParameters params = new DifferParameters();
+        JCommander jc = new JCommander(params);
+        jc.parse(job.args);
+        if (params.arguments == null || (params.arguments.size() & 1) == 1)
+          throw new IllegalArgumentException("arguments must be specified in pairs");
+        new ConfigDiffer(params, out, configCache).execute();
+      } else {
+        FindProperties fp = new FindProperties();
+        JCommander jc = new JCommander(fp);
+        jc.parse(job.args);
+        fp.setOut(out);
+        fp.execute();
+      }
+    } catch (Exception e) {
+      e.printStackTrace(out);
+      throw e;
+    } finally {
+      out.close();
+    }
+  }
+
+  @Override
+  public void run() {
+    try {
+      List<Job> jobs = readManifest();
+      ExecutorService pool = Executors.newFixedThreadPool(Math.max(numThreads, 1));
+      long start = System.currentTimeMillis();
+      try {
+        List<Future<Long>> futures = new ArrayList<Future<Long>>(jobs.size());
+        for (final Job job : jobs) {
+          futures.add(pool.submit(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+              long jobStart = System.currentTimeMillis();
+              runJob(job);
+              return System.currentTimeMillis() - jobStart;
+            }
+          }));
+        }
+        for (int i = 0; i < jobs.size(); i++) {
+          try {
+            long time = futures.get(i).get();
+            System.out.println("Finished " + jobs.get(i) + " in " + time + " ms.");
+          } catch (Exception e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            System.err.println("FAILED " + jobs.get(i) + ": " + cause);
+            numFailed++;
+          }
+        }
+      } finally {
+        pool.shutdown();
+      }
+      System.out.println("Ran " + jobs.size() + " jobs, " + numFailed + " failed, in " +
+        (System.currentTimeMillis() - start) + " ms.");
+    } catch (Exception e) {
+      System.err.println("ERROR: " + e.getMessage());
+      numFailed++;
+    }
+  }
+
+  /**
+   * Main entry point. Starts the processing.
+   *
+   * @param args The command line arguments.
+   */
+  public static void main(String[] args) {
+    try {
+      BatchRunner br = new BatchRunner();
+      JCommander jc = new JCommander(br);
+      jc.setProgramName(BatchRunner.class.getSimpleName());
+      try {
+        jc.parse(args);
+        if (br.printHelp) {
+          jc.usage();
+          System.exit(0);
+        }
+      } catch (Exception e) {
+        System.err.println(e.getMessage());
+        jc.usage();
+        System.exit(-1);
+      }
+      br.run();
+      if (br.numFailed > 0) System.exit(1);
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+}
@@ -1,7 +1,17 @@
 package com.larsgeorge.hbase.tools;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.beust.jcommander.JCommander;
 
@@ -20,46 +30,231 @@ public class ConfigDiffer implements Runnable {
   private ArrayList<ConfigurationInfo> configInfos = new ArrayList<ConfigurationInfo>();
   private ArrayList<Configuration> configs = new ArrayList<Configuration>();
   private ConfigurationUtils utils = null;
+  private PrintStream out = System.out;
+  private Map<String, Configuration> configCache = null;
+  private KeyTrie keyFilter = null;
+  private RenameTable renames = null;
 
   public ConfigDiffer(DifferParameters params) throws IOException {
+    this(params, System.out, null);
+  }
+
+  /**
+   * Creates a differ printing to the given stream, optionally sharing the parsed configurations
+   * with other differs.
+   *
+   * @param params The parameters of the differ.
+   * @param out The stream to print to.
+   * @param configCache The shared parsed configurations, or <code>null</code> to parse all
+   *   configurations anew. Must be safe to use from multiple threads when shared.
+   * @throws IOException When loading the template, lookup table, or renames fails.
+   */
+  public ConfigDiffer(DifferParameters params, PrintStream out,
+    Map<String, Configuration> configCache) throws IOException {
     this.params = params;
-    utils = new ConfigurationUtils(params);
+    this.out = out;
+    this.configCache = configCache;
+    utils = new ConfigurationUtils(params, out);
+    keyFilter = KeyTrie.createFilter(params.includes, params.excludes);
+    if (!params.renameFiles.isEmpty() || params.hadoopRenames) loadRenames();
+  }
+
+  private void loadRenames() throws IOException {
+    renames = new RenameTable();
+    for (String name : params.renameFiles) renames.load(new File(name));
+    if (params.hadoopRenames) renames.loadHadoop();
+    String prefix = params.prefix != null ? params.prefix : "";
+    if (!params.quiet) out.println(prefix + "Using " + renames.size() + " rename mappings.");
+  }
+
+  /**
+   * Returns the known renames, or <code>null</code> when renames are only detected by their
+   * descriptions.
+   */
+  RenameTable getRenames() {
+    return renames;
   }
 
   private void parseArgs() {
+    ConfigurationFormat format = params.format != null ?
+      ConfigurationFormat.fromName(params.format) : null;
     for (int index = 0; index < params.arguments.size(); index += 2) {
       ConfigurationInfo ci = new ConfigurationInfo(params.arguments.get(index),
-        params.arguments.get(index + 1));
+        params.arguments.get(index + 1), format);
       configInfos.add(ci);
     }
   }
 
   private void addConfig(ConfigurationInfo info) throws Exception {
-    Configuration c = utils.parseConfig(info);
-    configs.add(c);
+    configs.add(loadConfig(info));
+  }
+
+  /**
+   * Parses a configuration, or returns it from the shared configurations if parsed before,
+   * and drops the keys not passing the namespace filter.
+   *
+   * @param info The details of the configuration file.
+   * @return The parsed configuration.
+   * @throws Exception When parsing the configuration fails.
+   */
+  Configuration loadConfig(ConfigurationInfo info) throws Exception {
+    Configuration c = null;
+    // the parsed properties depend on the lookup table and description handling as well
+    String cacheKey = info.getFormat() + "|" + new File(info.getPath()).getCanonicalPath() +
+      "|" + info.getVersion() + "|" + params.lookup + "|" + params.ignoreDescription;
+    if (configCache != null) c = configCache.get(cacheKey);
+    if (c == null) {
+      c = utils.parseConfig(info);
+      if (configCache != null) configCache.put(cacheKey, c);
+    }
+    return keyFilter != null ? c.filter(keyFilter) : c;
   }
 
+  /**
+   * Reads the configurations, in parallel when more than one thread is requested, which
+   * mostly pays off for configurations streamed out of large release archives.
+   */
   private void readConfigs() throws Exception {
-    for (ConfigurationInfo info : configInfos) {
-      addConfig(info);
+    if (params.threads <= 1 || configInfos.size() <= 1) {
+      for (ConfigurationInfo info : configInfos) {
+        addConfig(info);
+      }
+      return;
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(
+      Math.min(params.threads, configInfos.size()));
+    try {
+      List<Future<Configuration>> futures = new ArrayList<Future<Configuration>>();
+      for (final ConfigurationInfo info : configInfos) {
+        futures.add(pool.submit(new Callable<Configuration>() {
+          @Override
+          public Configuration call() throws Exception {
+            return loadConfig(info);
+          }
+        }));
+      }
+      for (Future<Configuration> future : futures) {
+        try {
+          configs.add(future.get());
+        } catch (ExecutionException e) {
+          throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+      }
+    } finally {
+      pool.shutdown();
     }
   }
 
   private void diff() throws IOException {
-    utils.diff(configs);
+    ConfigurationDiff configDiff = new ConfigurationDiff(configs, renames);
+    // the report is streamed without holding the differences, unless they are needed after
+    DiffChunk chunk = utils.diff(configDiff, params.summaryDepth > 0 || params.store != null);
+    if (params.summaryDepth > 0) {
+      KeyTrie summary = new KeyTrie();
+      summary.addAll(chunk);
+      printSummary(summary);
+    }
+    if (params.store != null) record(configDiff, chunk);
+  }
+
+  /**
+   * Prints the differences per namespace.
+   *
+   * @param summary The trie holding the counted differences.
+   */
+  void printSummary(KeyTrie summary) {
+    String prefix = params.prefix != null ? params.prefix : "";
+    if (!params.quiet) out.println(prefix + "Differences per namespace:");
+    summary.printSummary(out, prefix, params.summaryDepth);
+    out.flush();
+  }
+
+  private void query() {
+    List<String> versions = new ArrayList<String>(configInfos.size());
+    for (ConfigurationInfo info : configInfos) versions.add(info.getVersion());
+    VersionTimeline timeline = new VersionTimeline(versions,
+      new ConfigurationDiff(configs, renames));
+    String prefix = params.prefix != null ? params.prefix : "";
+    List<String> keys = timeline.queryKeys(params.query);
+    if (!params.quiet) out.println(prefix + "Keys matching " + params.query + ":");
+    for (String key : keys) out.println(prefix + key);
+    if (!params.quiet) out.println(prefix + "Total: " + keys.size() + " of " +
+      timeline.getKeyCount() + " keys.");
+  }
+
+  private void record(ConfigurationDiff configDiff, DiffChunk chunk) throws IOException {
+    HistoryStore store = new HistoryStore(new File(params.store));
+    try {
+      int records = store.record(configDiff, chunk);
+      if (!params.quiet) out.println((params.prefix != null ? params.prefix : "") +
+        "Recorded " + records + " entries in history store " + params.store);
+    } finally {
+      store.close();
+    }
   }
 
   @Override
   public void run() {
     try {
-      parseArgs();
-      readConfigs();
-      diff();
+      execute();
+    } catch (IllegalArgumentException e) {
+      // invalid arguments, such as a malformed query, need no stack trace
+      System.err.println("ERROR: " + e.getMessage());
     } catch (Exception e) {
       e.printStackTrace();
     }
   }
 
+  /**
+   * Reads the configurations and prints their differences, passing on any error.
+   *
+   * @throws Exception When reading the configurations or printing the results fails.
+   */
+  void execute() throws Exception {
+    parseArgs();
+    // the store marks the recorded versions as complete, so they must not be filtered
+    if (params.store != null && keyFilter != null)
+      throw new IllegalArgumentException("--store cannot be combined with --include or " +
+        "--exclude");
+    if (params.store != null && params.query != null)
+      throw new IllegalArgumentException("--store cannot be combined with --query");
+    int directories = 0;
+    for (ConfigurationInfo info : configInfos) if (info.isDirectory()) directories++;
+    if (directories > 0) {
+      if (directories < configInfos.size())
+        throw new IllegalArgumentException("Either all or none of the arguments must be " +
+          "directories");
+      if (params.query != null || params.store != null)
+        throw new IllegalArgumentException("Directories cannot be combined with --query " +
+          "or --store");
+      new DirectoryDiffer(this, params, utils, out).execute(configInfos);
+      return;
+    }
+    readConfigs();
+    if (params.query != null) query(); else diff();
+  }
+
+  /**
+   * Reads the configurations and returns their differences, instead of printing them. The
+   * differences are computed while iterating, one key at a time, so a caller can filter or
+   * pipeline them, or stop early, without the whole report being computed or held in memory.
+   * The events come in the order of the printed report: the added or renamed keys of each
+   * version, followed by its removed keys, and finally the properties of every changed key,
+   * starting with its baseline.
+   *
+   * @return The iterator over the differences.
+   * @throws Exception When reading the configurations fails.
+   */
+  public Iterator<DiffEvent> events() throws Exception {
+    parseArgs();
+    for (ConfigurationInfo info : configInfos) {
+      if (info.isDirectory())
+        throw new IllegalArgumentException("Directories are not supported: " + info.getPath());
+    }
+    readConfigs();
+    return new ConfigurationDiff(configs, renames).iterator();
+  }
+
   /**
    * Main entry point. Starts the processing.
    *
@@ -1,5 +1,12 @@
 package com.larsgeorge.hbase.tools;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
 /**
@@ -7,13 +14,33 @@ import java.util.TreeSet;
  */
 class Configuration {
   private TreeSet<Property> properties = new TreeSet<Property>();
+  // indexes over the properties, pointing to the first property with a given key or description
+  private TreeMap<String, Property> byKey = new TreeMap<String, Property>();
+  private Map<String, Property> byDescription = new HashMap<String, Property>();
+  // only holds the keys that were specified more than once
+  private Map<String, List<Property>> duplicates = new HashMap<String, List<Property>>();
 
   public TreeSet<Property> getProperties() {
     return properties;
   }
 
   public void addProperty(Property property) {
-    properties.add(property);
+    if (!properties.add(property)) return;
+    Property first = byKey.get(property.getKey());
+    if (first == null) {
+      byKey.put(property.getKey(), property);
+    } else {
+      List<Property> dups = duplicates.get(property.getKey());
+      if (dups == null) {
+        dups = new ArrayList<Property>(2);
+        dups.add(first);
+        duplicates.put(property.getKey(), dups);
+      }
+      dups.add(property);
+    }
+    String description = property.getDescription();
+    if (description != null && !byDescription.containsKey(description))
+      byDescription.put(description, property);
   }
 
   public int getSize() {
@@ -21,17 +48,50 @@ class Configuration {
   }
 
   public Property getProperty(String key) {
-    for (Property property : properties) {
-      if (property.getKey().equals(key)) return property;
-    }
-    return null;
+    return byKey.get(key);
+  }
+
+  /**
+   * Returns all properties with the given key, in the order they were added.
+   *
+   * @param key The key to look up.
+   * @return The list of properties, empty when there are none.
+   */
+  public List<Property> getProperties(String key) {
+    List<Property> dups = duplicates.get(key);
+    if (dups != null) return dups;
+    Property property = byKey.get(key);
+    return property != null ? Collections.singletonList(property) :
+      Collections.<Property>emptyList();
+  }
+
+  /**
+   * Returns the sorted set of keys in this configuration.
+   */
+  public NavigableSet<String> getKeys() {
+    return byKey.navigableKeySet();
+  }
+
+  public boolean containsKey(String key) {
+    return byKey.containsKey(key);
   }
 
   public Property getPropertyByDescription(String description) {
-    for (Property property : properties) {
-      if (property.getDescription() != null && property.getDescription().equals(description))
-        return property;
+    return byDescription.get(description);
+  }
+
+  /**
+   * Returns a configuration with only the keys accepted by the given filter.
+   *
+   * @param filter The namespace filter.
+   * @return The filtered configuration, which is this one when all keys are accepted.
+   */
+  public Configuration filter(KeyTrie filter) {
+    Configuration filtered = new Configuration();
+    for (String key : getKeys()) {
+      if (!filter.accept(key)) continue;
+      for (Property property : getProperties(key)) filtered.addProperty(property);
     }
-    return null;
+    return filtered.getSize() == getSize() ? this : filtered;
   }
 }
@@ -0,0 +1,264 @@
+package com.larsgeorge.hbase.tools;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+
+/**
+ * Computes the differences between a list of configurations. The sorted key space of all
+ * configurations can be split into ranges, and each range computed independently, since every
+ * difference is about a single key. Concatenating the results of consecutive ranges is the
+ * same as computing the whole key space at once.
+ */
+class ConfigurationDiff {
+  private List<Configuration> configs;
+  private String[] keys;
+  private String[] versions;
+  private RenameTable renames;
+
+  /**
+   * Creates a new instance of this class.
+   *
+   * @param configs The list of configurations, in version order.
+   */
+  ConfigurationDiff(List<Configuration> configs) {
+    this(configs, null);
+  }
+
+  /**
+   * Creates a new instance of this class, detecting renamed keys with the given renames first.
+   *
+   * @param configs The list of configurations, in version order.
+   * @param renames The known renames, or <code>null</code> to only match descriptions.
+   */
+  ConfigurationDiff(List<Configuration> configs, RenameTable renames) {
+    this.configs = configs;
+    this.renames = renames;
+    TreeSet<String> allKeys = new TreeSet<String>();
+    versions = new String[configs.size()];
+    for (int i = 0; i < configs.size(); i++) {
+      Configuration conf = configs.get(i);
+      allKeys.addAll(conf.getKeys());
+      // empty configurations are not checked
+      if (conf.getSize() > 0) versions[i] = conf.getProperties().first().getSource();
+    }
+    keys = allKeys.toArray(new String[allKeys.size()]);
+  }
+
+  public List<Configuration> getConfigs() {
+    return configs;
+  }
+
+  /**
+   * Returns the number of distinct keys across all configurations.
+   */
+  public int getKeyCount() {
+    return keys.length;
+  }
+
+  /**
+   * Returns the key at the given position of the sorted key space.
+   */
+  public String getKey(int index) {
+    return keys[index];
+  }
+
+  /**
+   * Returns the version of the configuration with the given index, or <code>null</code> when
+   * the configuration is empty.
+   */
+  public String getVersion(int index) {
+    return versions[index];
+  }
+
+  /**
+   * Computes the differences for all keys in the given range of the sorted key space.
+   *
+   * @param from The index of the first key, inclusive.
+   * @param to The index of the last key, exclusive.
+   * @return The differences found.
+   */
+  public DiffChunk compute(int from, int to) {
+    DiffChunk chunk = new DiffChunk(configs.size());
+    EventIterator it = iterator(from, to);
+    while (it.hasNext()) {
+      DiffEvent event = it.next();
+      switch (event.getAction()) {
+        case Added:
+        case Renamed:
+          chunk.getAdded(it.getVersionIndex()).add(event);
+          break;
+        case Removed:
+          chunk.getRemoved(it.getVersionIndex()).add(event);
+          break;
+        default:
+          // the baseline starts the group of a changed key
+          if (event.getAction() == ConfigurationUtils.Action.Baseline)
+            chunk.getChanged().add(new ArrayList<DiffEvent>());
+          chunk.getChanged().get(chunk.getChanged().size() - 1).add(event);
+      }
+    }
+    return chunk;
+  }
+
+  /**
+   * Returns the differences for all keys, computed while iterating.
+   *
+   * @return The iterator over the differences, in the order of the report.
+   * @see EventIterator
+   */
+  public EventIterator iterator() {
+    return iterator(0, keys.length);
+  }
+
+  /**
+   * Returns the differences for all keys in the given range of the sorted key space, computed
+   * while iterating.
+   *
+   * @param from The index of the first key, inclusive.
+   * @param to The index of the last key, exclusive.
+   * @return The iterator over the differences, in the order of the report.
+   */
+  public EventIterator iterator(int from, int to) {
+    return new EventIterator(from, to);
+  }
+
+  /**
+   * Computes the differences lazily, one key at a time, in the order of the report: the added
+   * or renamed keys of each version, followed by its removed keys, both sorted by key, and
+   * finally the properties of every key that differs across the versions, in groups starting
+   * with the {@link ConfigurationUtils.Action#Baseline} property of each key. Nothing but the
+   * events of the current key is held, so a consumer can stop at any point, or filter the
+   * events, without the differences of all keys being computed up front.
+   */
+  class EventIterator implements Iterator<DiffEvent> {
+    private String fromKey;
+    private String toKey;
+    private int to;
+    // the section of the added or removed keys of a version being iterated
+    private int version = 1;
+    private boolean removedSection = false;
+    private Iterator<String> sectionKeys = null;
+    // the next key checked for changes, and the rest of the group of the current key
+    private int changedKey;
+    private Iterator<DiffEvent> group = null;
+    private DiffEvent next = null;
+    private int nextVersion = -1;
+    private int lastVersion = -1;
+
+    EventIterator(int from, int to) {
+      this.to = to;
+      this.changedKey = from;
+      if (from >= to) {
+        version = configs.size();
+      } else {
+        fromKey = keys[from];
+        toKey = to < keys.length ? keys[to] : null;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (next == null) next = advance();
+      return next != null;
+    }
+
+    @Override
+    public DiffEvent next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      DiffEvent event = next;
+      next = null;
+      lastVersion = nextVersion;
+      return event;
+    }
+
+    /**
+     * Returns the index of the version the last event returned by {@link #next()} belongs to,
+     * or -1 for the events of changed keys, which span all versions.
+     */
+    public int getVersionIndex() {
+      return lastVersion;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("Differences cannot be removed");
+    }
+
+    private DiffEvent advance() {
+      while (version < configs.size()) {
+        // empty configurations are not checked
+        if (versions[version] != null) {
+          Configuration conf = configs.get(version);
+          Configuration prevConf = configs.get(version - 1);
+          if (sectionKeys == null)
+            sectionKeys = range((removedSection ? prevConf : conf).getKeys(), fromKey, toKey)
+              .iterator();
+          while (sectionKeys.hasNext()) {
+            String key = sectionKeys.next();
+            nextVersion = version;
+            if (!removedSection && !prevConf.containsKey(key))
+              return added(key, prevConf, conf);
+            if (removedSection && !conf.containsKey(key))
+              return new DiffEvent(ConfigurationUtils.Action.Removed, prevConf.getProperty(key),
+                null, versions[version]);
+          }
+          sectionKeys = null;
+          if (!removedSection) {
+            removedSection = true;
+            continue;
+          }
+        }
+        removedSection = false;
+        version++;
+      }
+      nextVersion = -1;
+      while (group == null || !group.hasNext()) {
+        if (changedKey >= to) return null;
+        group = changes(keys[changedKey++]);
+      }
+      return group.next();
+    }
+
+    private DiffEvent added(String key, Configuration prevConf, Configuration conf) {
+      Property p = conf.getProperty(key);
+      Property p2 = renames != null ? renames.findOldProperty(key, prevConf, conf) : null;
+      boolean renamed = p2 != null;
+      if (!renamed) {
+        // we assume renaming does NOT change the description (or else how can we tell?)
+        p2 = prevConf.getPropertyByDescription(p.getDescription());
+        renamed = !Property.NULL.equals(p.getDescription()) && p2 != null;
+      }
+      return new DiffEvent(renamed ?
+        ConfigurationUtils.Action.Renamed : ConfigurationUtils.Action.Added, p, p2,
+        versions[version]);
+    }
+
+    /**
+     * Checks a key across all versions, returning its distinct properties, or nothing when
+     * they are the same in all versions.
+     */
+    private Iterator<DiffEvent> changes(String key) {
+      TreeSet<Property> merged = new TreeSet<Property>();
+      for (Configuration conf : configs) merged.addAll(conf.getProperties(key));
+      if (merged.size() < 2) return null;
+      List<DiffEvent> events = new ArrayList<DiffEvent>(merged.size());
+      boolean first = true;
+      for (Property p : merged) {
+        events.add(new DiffEvent(first ?
+          ConfigurationUtils.Action.Baseline : ConfigurationUtils.Action.Changed, p, null,
+          p.getSource()));
+        first = false;
+      }
+      return events.iterator();
+    }
+  }
+
+  private static NavigableSet<String> range(NavigableSet<String> keys, String fromKey,
+    String toKey) {
+    return toKey != null ? keys.subSet(fromKey, true, toKey, false) : keys.tailSet(fromKey, true);
+  }
+}
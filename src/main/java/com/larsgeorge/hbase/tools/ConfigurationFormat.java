@@ -0,0 +1,43 @@
+package com.larsgeorge.hbase.tools;
+
+/**
+ * The supported input formats of configuration files, each with its reader.
+ */
+enum ConfigurationFormat {
+  /** The XML based Hadoop style configuration files. */
+  XML(new XmlConfigurationReader()),
+  /** The JSON dumps created by Hadoop's <code>Configuration.dumpConfiguration()</code>. */
+  JSON(new JsonConfigurationReader());
+
+  private ConfigurationReader reader;
+
+  ConfigurationFormat(ConfigurationReader reader) {
+    this.reader = reader;
+  }
+
+  public ConfigurationReader getReader() {
+    return reader;
+  }
+
+  /**
+   * Determines the format based on the extension of the given file name, defaulting to XML.
+   *
+   * @param path The name of the configuration file.
+   * @return The matching format.
+   */
+  public static ConfigurationFormat detect(String path) {
+    if (path != null && path.toLowerCase().endsWith(".json")) return JSON;
+    return XML;
+  }
+
+  /**
+   * Parses the given format name, case insensitive.
+   *
+   * @param name The name of the format, e.g. "xml" or "json".
+   * @return The matching format.
+   * @throws IllegalArgumentException When the name is unknown.
+   */
+  public static ConfigurationFormat fromName(String name) {
+    return valueOf(name.toUpperCase());
+  }
+}
@@ -1,15 +1,29 @@
 package com.larsgeorge.hbase.tools;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
 /**
- * Stores meta data about a configuration instance.
+ * Stores meta data about a configuration instance. The path is either a single configuration
+ * file, or a directory holding the configuration files of a version, e.g. a
+ * <code>conf/</code> directory, or a file inside an archive, e.g.
+ * <code>hbase-2.5.0-bin.tar.gz!lib/hbase-common-*.jar!hbase-default.xml</code>.
  */
 class ConfigurationInfo {
   private String path;
   private String version;
+  private ConfigurationFormat format;
 
   ConfigurationInfo(String path, String version) {
+    this(path, version, null);
+  }
+
+  ConfigurationInfo(String path, String version, ConfigurationFormat format) {
     this.path = path;
     this.version = version;
+    this.format = format != null ? format : ConfigurationFormat.detect(path);
   }
 
   public String getPath() {
@@ -19,4 +33,34 @@ class ConfigurationInfo {
   public String getVersion() {
     return version;
   }
+
+  public ConfigurationFormat getFormat() {
+    return format;
+  }
+
+  /**
+   * Returns <code>true</code> when the path is a directory of configuration files.
+   */
+  public boolean isDirectory() {
+    return new File(path).isDirectory();
+  }
+
+  /**
+   * Returns <code>true</code> when the path points to a file inside an archive.
+   *
+   * @see ArchiveReader
+   */
+  public boolean isArchive() {
+    return ArchiveReader.isArchivePath(path);
+  }
+
+  /**
+   * Opens the configuration file, streaming it out of its archive if needed.
+   *
+   * @return The stream of the file.
+   * @throws IOException When the file cannot be opened.
+   */
+  public InputStream openStream() throws IOException {
+    return isArchive() ? ArchiveReader.open(path) : new FileInputStream(path);
+  }
 }
@@ -0,0 +1,25 @@
+package com.larsgeorge.hbase.tools;
+
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+
+/**
+ * Reads a configuration in a specific input format into the internal structure.
+ */
+interface ConfigurationReader {
+
+  /**
+   * Reads the configuration described by the given details.
+   *
+   * @param info The details about a given configuration file.
+   * @param utils The helper used to create the properties, applying type and unit lookups.
+   * @return The parsed configuration details in an internal format.
+   * @throws ParserConfigurationException When the XML given is faulty.
+   * @throws IOException When reading the configuration file fails.
+   * @throws SAXException When parsing the XML fails.
+   */
+  Configuration read(ConfigurationInfo info, ConfigurationUtils utils)
+    throws ParserConfigurationException, IOException, SAXException;
+}
@@ -5,30 +5,35 @@ import com.github.mustachejava.Mustache;
 import com.github.mustachejava.MustacheFactory;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.StringBuilderWriter;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.w3c.dom.Text;
 import org.xml.sax.SAXException;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStreamWriter;
+import java.io.PrintStream;
 import java.io.StringReader;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * Helper with miscellaneous functions.
@@ -37,6 +42,7 @@ public class ConfigurationUtils {
   private static final Log LOG = LogFactory.getLog(ConfigurationUtils.class);
 
   /** The default mustache template. */
+  private static final String DEF_TEMPLATE_NAME = "template";
   private static final String DEF_TEMPLATE =
     "{{action}}: " +
     "{{#property}}" +
@@ -46,19 +52,35 @@ public class ConfigurationUtils {
       "\n\n   from: Property{key='{{key}}', value='{{value}}', description='{{description}}', source='{{source}}'}" +
     "{{/property2}}\n";
 
+  /** The compiled templates, by path, shared by all instances. */
+  private static final ConcurrentMap<String, Mustache> TEMPLATES =
+    new ConcurrentHashMap<String, Mustache>();
+  private static final MustacheFactory MF = new DefaultMustacheFactory();
+  /** The loaded lookup tables, by path, shared by all instances. */
+  private static final ConcurrentMap<String, LookupTable> LOOKUP_TABLES =
+    new ConcurrentHashMap<String, LookupTable>();
+
   private String templateName = null;
-  private String template = DEF_TEMPLATE;
+  private String reportName = null;
   private boolean quiet = false;
-  private MustacheFactory mf = new DefaultMustacheFactory();
   private Mustache mustache = null;
+  private Mustache report = null;
   private String prefix = null;
   private String lookup = null;
   private boolean ignoreDescription = false;
   private Map<String, String> types = null;
   private Map<String, String> units = null;
+  private int threads = 1;
+  private PrintStream out = System.out;
+
+  private static final String NL = System.getProperty("line.separator");
+  /** The minimum number of keys handled by a single task of the parallel diff. */
+  private static final int MIN_KEYS_PER_TASK = 256;
+  /** The number of tasks per thread the key space is split into by the parallel diff. */
+  private static final int TASKS_PER_THREAD = 8;
 
   /** The possible actions triggering a report on a property. */
-  enum Action { Added, Renamed, Removed, Changed, Baseline }
+  public enum Action { Added, Renamed, Removed, Changed, Baseline }
 
   public ConfigurationUtils() throws IOException {
   }
@@ -69,42 +91,97 @@ public class ConfigurationUtils {
   }
 
   public ConfigurationUtils(DifferParameters params) throws IOException {
+    this(params, System.out);
+  }
+
+  public ConfigurationUtils(DifferParameters params, PrintStream out) throws IOException {
     this(params.templateName);
+    this.out = out;
     this.quiet = params.quiet;
     this.prefix = params.prefix != null ? params.prefix : "";
     this.lookup = params.lookup;
     this.ignoreDescription = params.ignoreDescription;
+    this.threads = params.threads;
+    this.reportName = params.reportTemplate;
+    if (reportName != null) report = compileTemplate(reportName);
     if (lookup != null) loadLookupTable();
   }
 
+  /**
+   * Returns a copy of this instance printing to the given stream, sharing the templates and
+   * lookup table.
+   *
+   * @param out The stream the copy prints to.
+   * @param threads The number of threads the copy computes differences with.
+   * @return The new instance.
+   * @throws IOException Never, declared by the constructor only.
+   */
+  ConfigurationUtils copy(PrintStream out, int threads) throws IOException {
+    ConfigurationUtils copy = new ConfigurationUtils();
+    copy.templateName = templateName;
+    copy.reportName = reportName;
+    copy.quiet = quiet;
+    copy.mustache = mustache;
+    copy.report = report;
+    copy.prefix = prefix;
+    copy.lookup = lookup;
+    copy.ignoreDescription = ignoreDescription;
+    copy.types = types;
+    copy.units = units;
+    copy.threads = threads;
+    copy.out = out;
+    return copy;
+  }
+
   /**
    * Loads a special properties file with details about the type and unit of a config key.
    */
   private void loadLookupTable() throws IOException {
     File propFile = new File(lookup);
     if (propFile.exists()) {
-      types = new HashMap<String, String>();
-      units = new HashMap<String, String>();
-      Properties props = new Properties();
-      props.load(new FileReader(propFile));
-      Enumeration keys = props.propertyNames();
-      int num = 0;
-      while (keys.hasMoreElements()) {
-        String key = (String) keys.nextElement();
-        String value = props.getProperty(key);
-        String[] parts = value.split("\\|");
-        if (parts[0].length() > 0) types.put(key, parts[0]);
-        if (parts.length > 1 && parts[1].length() > 0) units.put(key, parts[1]);
-        num++;
+      String path = propFile.getCanonicalPath();
+      LookupTable table = LOOKUP_TABLES.get(path);
+      if (table == null) {
+        table = new LookupTable();
+        Properties props = new Properties();
+        FileReader reader = new FileReader(propFile);
+        try {
+          props.load(reader);
+        } finally {
+          reader.close();
+        }
+        Enumeration keys = props.propertyNames();
+        while (keys.hasMoreElements()) {
+          String key = (String) keys.nextElement();
+          String value = props.getProperty(key);
+          String[] parts = value.split("\\|");
+          if (parts[0].length() > 0) table.types.put(key, parts[0]);
+          if (parts.length > 1 && parts[1].length() > 0) table.units.put(key, parts[1]);
+          table.size++;
+        }
+        LookupTable previous = LOOKUP_TABLES.putIfAbsent(path, table);
+        if (previous != null) table = previous;
       }
-      if (!quiet) System.out.println(prefix + "Using " + num + " lookup entries.");
+      types = table.types;
+      units = table.units;
+      if (!quiet) out.println(prefix + "Using " + table.size + " lookup entries.");
     } else {
-      if (!quiet) System.out.println(prefix + "WARNING: Properties file not found, skipping...");
+      if (!quiet) out.println(prefix + "WARNING: Properties file not found, skipping...");
     }
   }
 
   /**
-   * Parses a configuration file (XML based) into an internal structure.
+   * The types and units of a lookup table, which are never changed once loaded.
+   */
+  private static class LookupTable {
+    private Map<String, String> types = new HashMap<String, String>();
+    private Map<String, String> units = new HashMap<String, String>();
+    private int size = 0;
+  }
+
+  /**
+   * Parses a configuration file into an internal structure, using the reader of the input
+   * format given by the configuration details.
    *
    * @param info The details about a given configuration file.
    * @return The parsed configuration details in an internal format.
@@ -114,59 +191,29 @@ public class ConfigurationUtils {
    */
   public Configuration parseConfig(ConfigurationInfo info)
     throws ParserConfigurationException, IOException, SAXException {
-    Configuration conf = new Configuration();
-    DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
-    docBuilderFactory.setIgnoringComments(true);
-    docBuilderFactory.setNamespaceAware(true);
-    try {
-      docBuilderFactory.setXIncludeAware(true);
-    } catch (UnsupportedOperationException e) {
-      LOG.error("Failed to set setXIncludeAware(true) for parser " +
-        docBuilderFactory + ":" + e, e);
-    }
-    DocumentBuilder builder = docBuilderFactory.newDocumentBuilder();
-    Document doc = builder.parse(new File(info.getPath()).getAbsoluteFile());
-    Element root = doc.getDocumentElement();
-    if (!"configuration".equals(root.getTagName()))
-      LOG.fatal("bad conf file: top-level element not <configuration>");
-    NodeList props = root.getChildNodes();
-    for (int i = 0; i < props.getLength(); i++) {
-      Node propNode = props.item(i);
-      if (!(propNode instanceof Element)) continue;
-      Element prop = (Element)propNode;
-      if (!"property".equals(prop.getTagName()))
-        LOG.warn("bad conf file: element not <property>");
-      NodeList fields = prop.getChildNodes();
-      String attr = null;
-      String value = null;
-      String description = null;
-      boolean finalParameter = false;
-      for (int j = 0; j < fields.getLength(); j++) {
-        Node fieldNode = fields.item(j);
-        if (!(fieldNode instanceof Element)) continue;
-        Element field = (Element)fieldNode;
-        if ("name".equals(field.getTagName()) && field.hasChildNodes())
-          attr = ((Text) field.getFirstChild()).getData().trim();
-        if ("value".equals(field.getTagName()) && field.hasChildNodes())
-          value = ((Text)field.getFirstChild()).getData();
-        if ("description".equals(field.getTagName()) && field.hasChildNodes())
-          description = ((Text)field.getFirstChild()).getData();
-        if (description != null)
-          description = description.replaceAll("\n", " ").replaceAll(" +", " ").trim();
-        if ("final".equals(field.getTagName()) && field.hasChildNodes())
-          finalParameter = "true".equals(((Text)field.getFirstChild()).getData());
-      }
-      if (attr != null) {
-        String type = types != null ? types.get(attr) : null;
-        String unit = units != null ? units.get(attr) : null;
-        Property p = new Property(attr, value, type, unit, description, info.getVersion());
-        if (ignoreDescription) p.setIgnoreDescription(true);
-        conf.addProperty(p);
-      } else {
-        LOG.error("WARNING: Attribute was null!");
-      }
-    }
-    return conf;
+    return info.getFormat().getReader().read(info, this);
+  }
+
+  /**
+   * Creates a new property, adding the optional type and unit details from the lookup table.
+   *
+   * @param key The name of the property.
+   * @param value The value of the property.
+   * @param description The optional description.
+   * @param finalParameter Whether the property is marked final.
+   * @param resource The optional resource the property was loaded from.
+   * @param info The details about the configuration containing the property.
+   * @return The new property instance.
+   */
+  Property createProperty(String key, String value, String description,
+    boolean finalParameter, String resource, ConfigurationInfo info) {
+    String type = types != null ? types.get(key) : null;
+    String unit = units != null ? units.get(key) : null;
+    Property p = new Property(key, value, type, unit, description, info.getVersion());
+    p.setFinalParameter(finalParameter);
+    p.setResource(resource);
+    if (ignoreDescription) p.setIgnoreDescription(true);
+    return p;
   }
 
   /**
@@ -176,124 +223,385 @@ public class ConfigurationUtils {
    * @throws IOException When emitting the results fails.
    */
   public void diff(ArrayList<Configuration> configs) throws IOException {
-    if (!quiet) {
-      System.out.println(prefix + "=========================================================");
-      System.out.println(prefix + "Start");
-      System.out.println(prefix + "=========================================================");
+    diff(new ConfigurationDiff(configs));
+  }
+
+  /**
+   * Computes the given differences and emits the results.
+   *
+   * @param configDiff The configurations to compare.
+   * @return The computed differences for all keys.
+   * @throws IOException When emitting the results fails.
+   */
+  public DiffChunk diff(ConfigurationDiff configDiff) throws IOException {
+    return diff(configDiff, true);
+  }
+
+  /**
+   * Computes the given differences and emits the results, optionally without collecting them.
+   * A single thread without a report template then streams the report in constant memory.
+   *
+   * @param configDiff The configurations to compare.
+   * @param collect Whether the computed differences are needed after printing.
+   * @return The computed differences for all keys, or possibly <code>null</code> when they
+   *   are not collected.
+   * @throws IOException When emitting the results fails.
+   */
+  public DiffChunk diff(ConfigurationDiff configDiff, boolean collect) throws IOException {
+    DiffChunk chunk;
+    if (threads > 1) {
+      ForkJoinPool pool = new ForkJoinPool(threads);
+      try {
+        int threshold = Math.max(MIN_KEYS_PER_TASK,
+          configDiff.getKeyCount() / (threads * TASKS_PER_THREAD));
+        chunk = pool.invoke(new DiffTask(configDiff, 0, configDiff.getKeyCount(), threshold));
+      } finally {
+        pool.shutdown();
+      }
+    } else if (report == null) {
+      return streamDiff(configDiff, collect);
+    } else {
+      chunk = configDiff.compute(0, configDiff.getKeyCount());
     }
+    if (report != null) printReport(configDiff, chunk); else printDiff(configDiff, chunk);
+    return chunk;
+  }
 
-    MergedConfiguration mc = new MergedConfiguration();
-    TreeSet<String> prevKeys = null;
-    Configuration prevConf = null;
-    // iterate over configs gather details
-    if (!quiet) System.out.println(prefix + "Checking differences across versions...\n");
-    for (Configuration conf : configs) {
-      TreeSet<String> keys = new TreeSet<String>();
-      TreeSet<String> keysMissingType = new TreeSet<String>();
-      for (Property p : conf.getProperties()) {
-        mc.addProperty(p);
-        keys.add(p.getKey());
+  /**
+   * Prints the report while the differences are computed, rendering every event as it comes
+   * from the lazy iterator, instead of rendering all of them into buffers first. Only the
+   * summary of the current section is held, besides the events collected for the caller.
+   *
+   * @param configDiff The configurations to compare.
+   * @param collect Whether to collect the events for the caller.
+   * @return The computed differences for all keys, without rendered text, or
+   *   <code>null</code> when not collected.
+   */
+  private DiffChunk streamDiff(ConfigurationDiff configDiff, boolean collect) {
+    DiffChunk chunk = collect ? new DiffChunk(configDiff.getConfigs().size()) : null;
+    int numChanged = 0;
+    StringBuilder text = new StringBuilder();
+    Writer writer = new StringBuilderWriter(text);
+    printHeader();
+    ConfigurationDiff.EventIterator it = configDiff.iterator();
+    // the section being printed, i.e. its version and action, with its summary so far
+    int version = -1;
+    Action section = null;
+    int addedCount = 0, renamedCount = 0, removedCount = 0;
+    TreeSet<String> keysMissingType = new TreeSet<String>();
+    List<DiffEvent> group = null;
+    while (it.hasNext()) {
+      DiffEvent event = it.next();
+      Action action = event.getAction() == Action.Renamed ? Action.Added : event.getAction();
+      if (action == Action.Changed) action = Action.Baseline;
+      if (version != it.getVersionIndex() || section != action) {
+        printSectionEnd(section, configDiff.getVersion(Math.max(version, 0)), addedCount,
+          renamedCount, keysMissingType, removedCount);
+        version = it.getVersionIndex();
+        section = action;
+        addedCount = renamedCount = removedCount = 0;
+        keysMissingType.clear();
+        if (action == Action.Added) {
+          if (!quiet) out.println(prefix + "Added or Renamed Keys in " +
+            configDiff.getVersion(version) + ":");
+        } else if (action == Action.Removed) {
+          if (!quiet) out.println(prefix + "Removed Keys in " + configDiff.getVersion(version) +
+            ":");
+        } else {
+          printChangedHeader();
+        }
       }
-      // do not check empty configurations
-      if (conf.getProperties().size() > 0) {
-        String currentVersion = conf.getProperties().first().getSource();
-        // if this is the second+ config print out differences
-        if (prevKeys != null) {
-          // check for all newly added or renamed keys
-          TreeSet<String> addedKeys = new TreeSet<String>(keys);
-          addedKeys.removeAll(prevKeys);
-          if (addedKeys.size() > 0) {
-            if (!quiet) System.out.println(prefix + "Added or Renamed Keys in " +
-              currentVersion + ":");
-            int addedCount = 0, renamedCount = 0, missingType = 0;
-            for (String key : addedKeys) {
-              Property p = conf.getProperty(key);
-              // we assume renaming does NOT change the description (or else how can we tell?)
-              Property p2 = prevConf.getPropertyByDescription(p.getDescription());
-              boolean renamed = !Property.NULL.equals(p.getDescription()) && p2 != null;
-              if (renamed) renamedCount++; else addedCount++;
-              if (p.getType() == null) {
-                keysMissingType.add(p.getKey());
-                missingType++;
-              }
-              printProperty(p, p2, renamed ? Action.Renamed : Action.Added);
-            }
-            if (!quiet) System.out.println(prefix + "Summary for " + currentVersion + ": " +
-              addedCount + " added and " + renamedCount + " renamed properties.");
-            if (!quiet) {
-              System.out.println(prefix + "Missing type info: " + missingType);
-              if (keysMissingType.size() > 0) System.out.println(prefix + keysMissingType);
-            }
-            System.out.println();
-          }
-          // determine all removed keys
-          TreeSet<String> removedKeys = new TreeSet<String>(prevKeys);
-          removedKeys.removeAll(keys);
-          if (removedKeys.size() > 0) {
-            if (!quiet) System.out.println(prefix + "Removed Keys in " + currentVersion + ":");
-            int removedCount = 0;
-            for (String key : removedKeys) {
-              Property p = prevConf.getProperty(key);
-              removedCount++;
-              printProperty(p, null, Action.Removed);
-            }
-            if (!quiet) System.out.println(prefix + "Summary for " + currentVersion + ": " +
-              removedCount + " removed properties.");
-            System.out.println();
-          }
+      if (event.getAction() == Action.Baseline) {
+        if (numChanged > 0) text.append(NL);
+        numChanged++;
+        if (chunk != null) {
+          group = new ArrayList<DiffEvent>();
+          chunk.getChanged().add(group);
         }
+        if (!quiet) text.append(prefix).append("Difference found for property ")
+          .append(event.getProperty().getKey()).append(NL);
+      }
+      renderEvent(writer, event);
+      out.print(text);
+      text.setLength(0);
+      if (action == Action.Added) {
+        if (chunk != null) chunk.getAdded(version).add(event);
+        if (event.getAction() == Action.Renamed) renamedCount++; else addedCount++;
+        if (event.getProperty().getType() == null)
+          keysMissingType.add(event.getProperty().getKey());
+      } else if (action == Action.Removed) {
+        if (chunk != null) chunk.getRemoved(version).add(event);
+        removedCount++;
+      } else if (chunk != null) {
+        group.add(event);
+      }
+    }
+    if (section != Action.Baseline) {
+      printSectionEnd(section, configDiff.getVersion(Math.max(version, 0)), addedCount,
+        renamedCount, keysMissingType, removedCount);
+      printChangedHeader();
+    } else {
+      out.print(NL);
+    }
+    printFooter(numChanged);
+    return chunk;
+  }
+
+  private void printHeader() {
+    if (!quiet) {
+      out.println(prefix + "=========================================================");
+      out.println(prefix + "Start");
+      out.println(prefix + "=========================================================");
+    }
+    // iterate over configs gather details
+    if (!quiet) out.println(prefix + "Checking differences across versions...\n");
+  }
+
+  /**
+   * Prints the summary closing a section of added or removed keys, if the given section is
+   * one of these.
+   */
+  private void printSectionEnd(Action section, String version, int addedCount, int renamedCount,
+    Set<String> keysMissingType, int removedCount) {
+    if (section == Action.Added) {
+      if (!quiet) out.println(prefix + "Summary for " + version + ": " +
+        addedCount + " added and " + renamedCount + " renamed properties.");
+      if (!quiet) {
+        out.println(prefix + "Missing type info: " + keysMissingType.size());
+        if (keysMissingType.size() > 0) out.println(prefix + keysMissingType);
       }
-      prevKeys = keys;
-      prevConf = conf;
+      out.println();
+    } else if (section == Action.Removed) {
+      if (!quiet) out.println(prefix + "Summary for " + version + ": " +
+        removedCount + " removed properties.");
+      out.println();
     }
-    if (!quiet) System.out.println(prefix +
+  }
+
+  private void printChangedHeader() {
+    if (!quiet) out.println(prefix +
       "---------------------------------------------------------");
-    if (!quiet) System.out.println(prefix + "Checking differences per property...\n");
-    int diffCount = 0;
-    for (String key : mc.getProperties().keySet()) {
-      TreeSet<Property> merged = mc.getProperties().get(key);
-      if (merged.size() > 1) {
-        if (!quiet) System.out.println(prefix + "Difference found for property " + key);
-        diffCount++;
-        boolean first = true;
-        for (Property p : merged) {
-          printProperty(p, null, first ? Action.Baseline : Action.Changed);
-          first = false;
+    if (!quiet) out.println(prefix + "Checking differences per property...\n");
+  }
+
+  private void printFooter(int numChanged) {
+    if (!quiet) out.println(prefix + "Total: " + numChanged +
+      " differences.");
+    if (!quiet) out.println(prefix +
+      "=========================================================");
+    out.flush();
+  }
+
+  /**
+   * Computes and renders the differences of a range of keys, splitting it into two halves
+   * that are processed in parallel as long as the range is above the threshold.
+   */
+  class DiffTask extends RecursiveTask<DiffChunk> {
+    private static final long serialVersionUID = 1L;
+
+    private ConfigurationDiff configDiff;
+    private int from;
+    private int to;
+    private int threshold;
+
+    DiffTask(ConfigurationDiff configDiff, int from, int to, int threshold) {
+      this.configDiff = configDiff;
+      this.from = from;
+      this.to = to;
+      this.threshold = threshold;
+    }
+
+    @Override
+    protected DiffChunk compute() {
+      if (to - from <= threshold) {
+        DiffChunk chunk = configDiff.compute(from, to);
+        return report == null ? renderChunk(chunk) : chunk;
+      }
+      int mid = (from + to) >>> 1;
+      DiffTask left = new DiffTask(configDiff, from, mid, threshold);
+      left.fork();
+      DiffChunk right = new DiffTask(configDiff, mid, to, threshold).compute();
+      return left.join().append(right);
+    }
+  }
+
+  /**
+   * Renders the differences of a chunk into its text buffers.
+   *
+   * @param chunk The chunk with the computed differences.
+   * @return The same chunk, now including the rendered text.
+   */
+  private DiffChunk renderChunk(DiffChunk chunk) {
+    for (int v = 0; v < chunk.getVersionCount(); v++) {
+      Writer writer = new StringBuilderWriter(chunk.getAddedText(v));
+      for (DiffEvent event : chunk.getAdded(v)) renderEvent(writer, event);
+      writer = new StringBuilderWriter(chunk.getRemovedText(v));
+      for (DiffEvent event : chunk.getRemoved(v)) renderEvent(writer, event);
+    }
+    StringBuilder text = chunk.getChangedText();
+    Writer writer = new StringBuilderWriter(text);
+    for (List<DiffEvent> group : chunk.getChanged()) {
+      String key = group.get(0).getProperty().getKey();
+      if (!quiet) text.append(prefix).append("Difference found for property ").append(key)
+        .append(NL);
+      for (DiffEvent event : group) renderEvent(writer, event);
+      text.append(NL);
+    }
+    return chunk;
+  }
+
+  /**
+   * Prints the report of the given differences.
+   *
+   * @param configDiff The compared configurations.
+   * @param chunk The rendered differences for all keys.
+   */
+  private void printDiff(ConfigurationDiff configDiff, DiffChunk chunk) {
+    printHeader();
+    for (int v = 1; v < configDiff.getConfigs().size(); v++) {
+      // do not check empty configurations
+      String currentVersion = configDiff.getVersion(v);
+      if (currentVersion == null) continue;
+      List<DiffEvent> added = chunk.getAdded(v);
+      if (added.size() > 0) {
+        if (!quiet) out.println(prefix + "Added or Renamed Keys in " +
+          currentVersion + ":");
+        out.print(chunk.getAddedText(v));
+        int addedCount = 0, renamedCount = 0;
+        TreeSet<String> keysMissingType = new TreeSet<String>();
+        for (DiffEvent event : added) {
+          if (event.getAction() == Action.Renamed) renamedCount++; else addedCount++;
+          if (event.getProperty().getType() == null)
+            keysMissingType.add(event.getProperty().getKey());
         }
-        System.out.println();
+        printSectionEnd(Action.Added, currentVersion, addedCount, renamedCount,
+          keysMissingType, 0);
+      }
+      List<DiffEvent> removed = chunk.getRemoved(v);
+      if (removed.size() > 0) {
+        if (!quiet) out.println(prefix + "Removed Keys in " + currentVersion + ":");
+        out.print(chunk.getRemovedText(v));
+        printSectionEnd(Action.Removed, currentVersion, 0, 0, null, removed.size());
       }
     }
-    if (!quiet) System.out.println(prefix + "Total: " + diffCount + " differences.");
-    if (!quiet) System.out.println(prefix +
-      "=========================================================");
+    printChangedHeader();
+    out.print(chunk.getChangedText());
+    printFooter(chunk.getChanged().size());
   }
 
   /**
-   * Optionally loads and compiles (if not null) the given Mustache template.
+   * Renders the whole report with the report template, in a single pass over one model. The
+   * model has the list of <code>versions</code> compared, the <code>sections</code> with the
+   * added and removed keys of each version, and the <code>changed</code> keys, see
+   * <code>report-minimal.mustache</code> for an example.
+   *
+   * @param configDiff The compared configurations.
+   * @param chunk The computed differences for all keys.
+   * @throws IOException When writing the report fails.
+   */
+  private void printReport(ConfigurationDiff configDiff, DiffChunk chunk) throws IOException {
+    Map<String, Object> model = new HashMap<String, Object>();
+    model.put("prefix", prefix);
+    model.put("quiet", quiet);
+    List<String> versions = new ArrayList<String>();
+    List<Map<String, Object>> sections = new ArrayList<Map<String, Object>>();
+    for (int v = 0; v < configDiff.getConfigs().size(); v++) {
+      String version = configDiff.getVersion(v);
+      if (version == null) continue;
+      versions.add(version);
+      if (v == 0) continue;
+      List<DiffEvent> added = chunk.getAdded(v);
+      List<DiffEvent> removed = chunk.getRemoved(v);
+      int renamedCount = 0;
+      TreeSet<String> keysMissingType = new TreeSet<String>();
+      for (DiffEvent event : added) {
+        if (event.getAction() == Action.Renamed) renamedCount++;
+        if (event.getProperty().getType() == null)
+          keysMissingType.add(event.getProperty().getKey());
+      }
+      Map<String, Object> section = new HashMap<String, Object>();
+      section.put("version", version);
+      section.put("added", added);
+      section.put("hasAdded", !added.isEmpty());
+      section.put("addedCount", added.size() - renamedCount);
+      section.put("renamedCount", renamedCount);
+      section.put("keysMissingType", keysMissingType);
+      section.put("missingType", keysMissingType.size());
+      section.put("removed", removed);
+      section.put("hasRemoved", !removed.isEmpty());
+      section.put("removedCount", removed.size());
+      sections.add(section);
+    }
+    List<Map<String, Object>> changed = new ArrayList<Map<String, Object>>();
+    for (List<DiffEvent> group : chunk.getChanged()) {
+      Map<String, Object> entry = new HashMap<String, Object>();
+      entry.put("key", group.get(0).getProperty().getKey());
+      entry.put("events", group);
+      changed.add(entry);
+    }
+    model.put("versions", versions);
+    model.put("sections", sections);
+    model.put("changed", changed);
+    model.put("totalChanged", changed.size());
+    Writer writer = new BufferedWriter(new OutputStreamWriter(out), 64 * 1024);
+    report.execute(writer, model);
+    writer.flush();
+  }
+
+  /**
+   * Compiles (if not null) the given Mustache template, or the default one.
    *
    * @throws IOException When loading the given external template file fails.
    */
   private void loadTemplate() throws IOException {
-    if (templateName != null) {
-      template = FileUtils.readFileToString(new File(templateName));
+    mustache = templateName != null ? compileTemplate(templateName) :
+      TEMPLATES.get(DEF_TEMPLATE_NAME);
+    if (mustache == null) {
+      mustache = MF.compile(new StringReader(DEF_TEMPLATE), DEF_TEMPLATE_NAME);
+      TEMPLATES.putIfAbsent(DEF_TEMPLATE_NAME, mustache);
     }
-    if (template != null) mustache = mf.compile(new StringReader(template), "template");
   }
 
   /**
-   * Prints a property and optional related property.
+   * Returns the compiled template for the given path, compiling it only when it is not cached
+   * yet. If there is no such file, the name is looked up on the classpath, which holds the
+   * bundled templates.
    *
-   * @param p The property to print.
-   * @param p2  The optional related property.
-   * @param action The action that triggered the print out.
+   * @param name The path or resource name of the template.
+   * @return The compiled template.
+   * @throws IOException When loading the template fails.
    */
-  private void printProperty(Property p, Property p2, Action action) throws IOException {
-    HashMap<String, Object> context = new HashMap<String, Object>();
-    context.put("action", action);
-    context.put("property", p);
-    if (p2 != null) context.put("property2", p2);
-    Writer writer = new OutputStreamWriter(System.out);
-    mustache.execute(writer, context);
-    writer.flush();
+  static Mustache compileTemplate(String name) throws IOException {
+    File file = new File(name);
+    String path = file.exists() ? file.getCanonicalPath() : name;
+    Mustache compiled = TEMPLATES.get(path);
+    if (compiled != null) return compiled;
+    String text;
+    if (file.exists()) {
+      text = FileUtils.readFileToString(file);
+    } else {
+      InputStream in = ConfigurationUtils.class.getClassLoader().getResourceAsStream(name);
+      if (in == null) throw new FileNotFoundException("Template not found: " + name);
+      try {
+        text = IOUtils.toString(in, "UTF-8");
+      } finally {
+        in.close();
+      }
+    }
+    compiled = MF.compile(new StringReader(text), path);
+    Mustache previous = TEMPLATES.putIfAbsent(path, compiled);
+    return previous != null ? previous : compiled;
+  }
+
+  /**
+   * Renders a difference, i.e. a property and optional related property. The event itself is
+   * the scope, providing the <code>action</code>, <code>property</code>, and
+   * <code>property2</code> of the template.
+   *
+   * @param writer The writer to render to.
+   * @param event The difference to render.
+   */
+  private void renderEvent(Writer writer, DiffEvent event) {
+    mustache.execute(writer, event);
   }
 }
@@ -0,0 +1,239 @@
+package com.larsgeorge.hbase.tools;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Generates synthetic inputs of any size for the tools: Hadoop style XML configurations of a
+ * number of versions, where each version adds, renames, changes, and removes a share of the
+ * properties of the one before, and source trees of Java files using the keys of those
+ * configurations. The same seed always generates the same inputs.
+ */
+class CorpusGenerator {
+
+  private static final String[] PROJECTS = { "hbase", "hadoop", "dfs", "yarn", "mapreduce" };
+  private static final String[] COMPONENTS = { "client", "regionserver", "master", "ipc", "rpc",
+    "io", "security", "server", "balancer", "replication" };
+  private static final String[] WORDS = { "cache", "handler", "timeout", "size", "count",
+    "interval", "period", "enabled", "max", "min", "buffer", "queue", "retries", "threads",
+    "class", "dir", "port", "address", "ratio", "limit" };
+
+  private Random random;
+  private int nextId = 0;
+  // all keys of all versions, in the order they were created
+  private Set<String> allKeys = new LinkedHashSet<String>();
+  // the keys used by the generated sources
+  private Set<String> usedKeys = new TreeSet<String>();
+  private int numRenames = 0;
+
+  /**
+   * Creates a new instance of this class.
+   *
+   * @param seed The seed of the random generator.
+   */
+  CorpusGenerator(long seed) {
+    this.random = new Random(seed);
+  }
+
+  private String newKey() {
+    String key;
+    do {
+      key = PROJECTS[random.nextInt(PROJECTS.length)] + "." +
+        COMPONENTS[random.nextInt(COMPONENTS.length)] + "." +
+        WORDS[random.nextInt(WORDS.length)] + "." + WORDS[random.nextInt(WORDS.length)] +
+        (nextId++);
+    } while (allKeys.contains(key));
+    allKeys.add(key);
+    return key;
+  }
+
+  private String newValue() {
+    switch (random.nextInt(3)) {
+      case 0: return String.valueOf(random.nextInt(100000));
+      case 1: return String.valueOf(random.nextBoolean());
+      default: return "value-" + Integer.toHexString(random.nextInt());
+    }
+  }
+
+  /**
+   * Generates the configurations, named <code>v0.xml</code>, <code>v1.xml</code>, and so on,
+   * plus a <code>renames.properties</code> mapping file listing all renamed keys. A renamed
+   * key keeps its description, as the differ expects without a mapping file.
+   *
+   * @param dir The directory to write to.
+   * @param numProperties The number of properties of the first version.
+   * @param numVersions The number of versions.
+   * @param addRate The share of new properties added by each version.
+   * @param renameRate The share of properties renamed by each version.
+   * @param changeRate The share of properties with a new value in each version.
+   * @param removeRate The share of properties removed by each version.
+   * @return The configuration files, in version order.
+   * @throws IOException When writing fails.
+   */
+  public List<File> generateConfigs(File dir, int numProperties, int numVersions,
+    double addRate, double renameRate, double changeRate, double removeRate) throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs())
+      throw new IOException("Failed creating directory " + dir);
+    // the value and description of each key of the current version
+    Map<String, String[]> props = new LinkedHashMap<String, String[]>();
+    for (int i = 0; i < numProperties; i++) {
+      String key = newKey();
+      props.put(key, new String[] { newValue(), "Description of " + key + "." });
+    }
+    List<File> files = new ArrayList<File>(numVersions);
+    PrintWriter renames = open(new File(dir, "renames.properties"));
+    try {
+      for (int v = 0; v < numVersions; v++) {
+        if (v > 0) props = nextVersion(props, addRate, renameRate, changeRate, removeRate,
+          renames);
+        File file = new File(dir, "v" + v + ".xml");
+        writeConfig(file, props);
+        files.add(file);
+      }
+    } finally {
+      renames.close();
+    }
+    return files;
+  }
+
+  private Map<String, String[]> nextVersion(Map<String, String[]> props, double addRate,
+    double renameRate, double changeRate, double removeRate, PrintWriter renames) {
+    int size = props.size();
+    Map<String, String[]> next = new LinkedHashMap<String, String[]>(size * 2);
+    for (Map.Entry<String, String[]> entry : props.entrySet()) {
+      double r = random.nextDouble();
+      String[] details = entry.getValue();
+      if (r < removeRate) continue;
+      if (r < removeRate + renameRate) {
+        String key = newKey();
+        renames.println(entry.getKey() + "=" + key);
+        next.put(key, details);
+        numRenames++;
+      } else if (r < removeRate + renameRate + changeRate) {
+        next.put(entry.getKey(), new String[] { newValue(), details[1] });
+      } else {
+        next.put(entry.getKey(), details);
+      }
+    }
+    int added = (int) Math.round(size * addRate);
+    for (int i = 0; i < added; i++) {
+      String key = newKey();
+      next.put(key, new String[] { newValue(), "Description of " + key + "." });
+    }
+    return next;
+  }
+
+  private void writeConfig(File file, Map<String, String[]> props) throws IOException {
+    PrintWriter out = open(file);
+    try {
+      out.println("<?xml version=\"1.0\"?>");
+      out.println("<?xml-stylesheet type=\"text/xsl\" href=\"configuration.xsl\"?>");
+      out.println("<configuration>");
+      for (Map.Entry<String, String[]> entry : props.entrySet()) {
+        out.println("  <property>");
+        out.println("    <name>" + entry.getKey() + "</name>");
+        out.println("    <value>" + entry.getValue()[0] + "</value>");
+        out.println("    <description>" + entry.getValue()[1] + "</description>");
+        out.println("  </property>");
+      }
+      out.println("</configuration>");
+      if (out.checkError()) throw new IOException("Failed writing " + file);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Generates a source tree of Java files, each using a number of keys, either as a literal
+   * passed directly, or through a string constant. Keys are picked with a skewed distribution,
+   * so that a few keys are used much more often than the rest, as in real code bases.
+   *
+   * @param dir The root directory of the tree.
+   * @param numFiles The number of files.
+   * @param keysPerFile The number of key usages per file.
+   * @return The total number of key usages written.
+   * @throws IOException When writing fails.
+   */
+  public int generateSources(File dir, int numFiles, int keysPerFile) throws IOException {
+    List<String> keys = getKeys();
+    if (keys.isEmpty()) throw new IllegalStateException("Generate the configurations first");
+    int usages = 0;
+    for (int f = 0; f < numFiles; f++) {
+      String pkg = "module" + (f / 100);
+      File pkgDir = new File(dir, "org/example/" + pkg);
+      if (!pkgDir.isDirectory() && !pkgDir.mkdirs())
+        throw new IOException("Failed creating directory " + pkgDir);
+      String name = "Generated" + f;
+      PrintWriter out = open(new File(pkgDir, name + ".java"));
+      try {
+        out.println("package org.example." + pkg + ";");
+        out.println();
+        out.println("import org.apache.hadoop.conf.Configuration;");
+        out.println();
+        out.println("public class " + name + " {");
+        List<String> body = new ArrayList<String>();
+        for (int i = 0; i < keysPerFile; i++) {
+          double r = random.nextDouble();
+          String key = keys.get((int) (r * r * r * keys.size()));
+          usedKeys.add(key);
+          if (random.nextInt(4) == 0) {
+            out.println("  public static final String KEY_" + i + " = \"" + key + "\";");
+            body.add("    int v" + i + " = conf.getInt(KEY_" + i + ", " + i + ");");
+          } else {
+            body.add("    String v" + i + " = conf.get(\"" + key + "\");");
+          }
+          body.add("    // use the value of the setting " + i);
+          usages++;
+        }
+        out.println();
+        out.println("  public void configure(Configuration conf) {");
+        for (String line : body) out.println(line);
+        out.println("  }");
+        out.println("}");
+        if (out.checkError()) throw new IOException("Failed writing " + name);
+      } finally {
+        out.close();
+      }
+    }
+    return usages;
+  }
+
+  private static PrintWriter open(File file) throws IOException {
+    return new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+      new FileOutputStream(file), "UTF-8"), 64 * 1024));
+  }
+
+  /**
+   * Returns all keys generated so far, in the order they were generated.
+   */
+  public List<String> getKeys() {
+    return new ArrayList<String>(allKeys);
+  }
+
+  /**
+   * Returns the distinct keys used by all sources generated so far, sorted.
+   */
+  public SortedSet<String> getUsedKeys() {
+    return new TreeSet<String>(usedKeys);
+  }
+
+  /**
+   * Returns the number of renames across all versions.
+   */
+  public int getNumRenames() {
+    return numRenames;
+  }
+}
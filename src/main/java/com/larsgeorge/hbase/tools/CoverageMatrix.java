@@ -0,0 +1,312 @@
+package com.larsgeorge.hbase.tools;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import org.apache.commons.io.output.NullOutputStream;
+
+/**
+ * Compares the keys used in the code with the keys documented in the configuration, for a
+ * number of versions. For every version the source tree is scanned and the configuration file
+ * parsed, each into a bitmap over the ids of all keys. The keys used but not documented, and the
+ * documented keys that are never used, i.e. dead configuration, then follow from set operations
+ * on the bitmaps, per version and from one version to the next.
+ */
+public class CoverageMatrix implements Runnable {
+
+  /** The status of a key in a version, as shown in the matrix. */
+  enum Status {
+    BOTH('B'), UNDOCUMENTED('U'), DEAD('D'), NONE('-');
+
+    private char symbol;
+
+    Status(char symbol) {
+      this.symbol = symbol;
+    }
+
+    public char getSymbol() {
+      return symbol;
+    }
+  }
+
+  @Parameter(description = "<source dir1> <config file1> <version1> <source dir2> ...",
+    required = true)
+  private List<String> arguments = null;
+  @Parameter(names = { "-h", "--help" }, description = "Print this help", help = true)
+  private boolean printHelp = false;
+  @Parameter(names = { "-t", "--types" }, description = "Space separated list of file types " +
+    "to scan, see FindProperties", variableArity = true)
+  private List<String> fileTypes = Arrays.asList("java");
+  @Parameter(names = { "-n", "--numfields" },
+    description = "Minimum number of fields to identify property")
+  private int numFields = 3;
+  @Parameter(names = { "-p", "--threads" }, description = "Number of threads to scan with")
+  private int numThreads = 3;
+  @Parameter(names = "--java", description = "Use the Java aware scan, resolving constants")
+  private boolean javaAware = false;
+  @Parameter(names = "--gitignore", description = "Skip the files ignored by .gitignore files")
+  private boolean gitignore = false;
+  @Parameter(names = "--exclude", description = "Exclude the given directory.")
+  private List<String> exclude = new ArrayList<String>();
+  @Parameter(names = { "-s", "--show" }, description = "Which keys to list, one of: all, " +
+    "undocumented, dead, mismatch (undocumented or dead in any version)")
+  private String show = "all";
+  @Parameter(names = { "-f", "--format" }, description = "Output format, one of: text, csv")
+  private String format = "text";
+  @Parameter(names = { "-o", "--outputFile" }, description = "Write output to the specified " +
+    "file, not to the console")
+  private String outputFile = null;
+  @Parameter(names = { "-q", "--quiet" }, description = "Only print the matrix")
+  private boolean quiet = false;
+
+  private List<String> versions = new ArrayList<String>();
+  private String[] keys;
+  private BitSet[] used;
+  private BitSet[] documented;
+
+  /**
+   * Scans the sources and parses the configuration of each version, and assigns the ids of
+   * all keys, which are their positions in the sorted union of keys.
+   */
+  private void load() throws Exception {
+    int n = arguments.size() / 3;
+    List<Set<String>> usedKeys = new ArrayList<Set<String>>(n);
+    List<Set<String>> documentedKeys = new ArrayList<Set<String>>(n);
+    TreeSet<String> allKeys = new TreeSet<String>();
+    ConfigurationUtils utils = new ConfigurationUtils();
+    for (int i = 0; i < n; i++) {
+      String dir = arguments.get(i * 3);
+      String version = arguments.get(i * 3 + 2);
+      if (!quiet) System.err.println("Scanning " + dir + " for version " + version + "...");
+      versions.add(version);
+      Set<String> found = scan(dir);
+      Set<String> configKeys = utils.parseConfig(
+        new ConfigurationInfo(arguments.get(i * 3 + 1), version)).getKeys();
+      usedKeys.add(found);
+      documentedKeys.add(configKeys);
+      allKeys.addAll(found);
+      allKeys.addAll(configKeys);
+    }
+    keys = allKeys.toArray(new String[allKeys.size()]);
+    Map<String, Integer> ids = new HashMap<String, Integer>(keys.length * 2);
+    for (int k = 0; k < keys.length; k++) ids.put(keys[k], k);
+    used = new BitSet[n];
+    documented = new BitSet[n];
+    for (int v = 0; v < n; v++) {
+      used[v] = toBits(usedKeys.get(v), ids);
+      documented[v] = toBits(documentedKeys.get(v), ids);
+    }
+  }
+
+  private BitSet toBits(Set<String> set, Map<String, Integer> ids) {
+    BitSet bits = new BitSet(keys.length);
+    for (String key : set) bits.set(ids.get(key));
+    return bits;
+  }
+
+  /**
+   * Runs the finder over a source tree, collecting the distinct keys.
+   */
+  private Set<String> scan(String dir) throws Exception {
+    List<String> args = new ArrayList<String>(Arrays.asList("-d", dir, "-u",
+      "-n", String.valueOf(numFields), "-p", String.valueOf(numThreads)));
+    args.add("-t");
+    args.addAll(fileTypes);
+    if (javaAware) args.add("--java");
+    if (gitignore) args.add("--gitignore");
+    for (String ep : exclude) {
+      args.add("--exclude");
+      args.add(ep);
+    }
+    FindProperties fp = new FindProperties();
+    JCommander jc = new JCommander(fp);
+    jc.parse(args.toArray(new String[args.size()]));
+    PrintStream devNull = new PrintStream(new NullOutputStream());
+    fp.setOut(devNull);
+    fp.execute();
+    devNull.close();
+    return fp.getFoundKeys();
+  }
+
+  /**
+   * Returns the keys used but not documented in the given version.
+   */
+  public BitSet undocumented(int version) {
+    BitSet bits = (BitSet) used[version].clone();
+    bits.andNot(documented[version]);
+    return bits;
+  }
+
+  /**
+   * Returns the keys documented but not used in the given version.
+   */
+  public BitSet dead(int version) {
+    BitSet bits = (BitSet) documented[version].clone();
+    bits.andNot(used[version]);
+    return bits;
+  }
+
+  /**
+   * Returns the keys both used and documented in the given version.
+   */
+  public BitSet both(int version) {
+    BitSet bits = (BitSet) used[version].clone();
+    bits.and(documented[version]);
+    return bits;
+  }
+
+  private BitSet selectRows() {
+    BitSet rows = new BitSet(keys.length);
+    for (int v = 0; v < versions.size(); v++) {
+      if (show.equals("all")) {
+        rows.or(used[v]);
+        rows.or(documented[v]);
+      } else if (show.equals("undocumented")) {
+        rows.or(undocumented(v));
+      } else if (show.equals("dead")) {
+        rows.or(dead(v));
+      } else if (show.equals("mismatch")) {
+        rows.or(undocumented(v));
+        rows.or(dead(v));
+      } else {
+        throw new IllegalArgumentException("Unknown selection: " + show);
+      }
+    }
+    return rows;
+  }
+
+  private Status getStatus(int key, int version) {
+    boolean u = used[version].get(key);
+    boolean d = documented[version].get(key);
+    return u ? (d ? Status.BOTH : Status.UNDOCUMENTED) : (d ? Status.DEAD : Status.NONE);
+  }
+
+  private void printMatrix(Writer writer) throws IOException {
+    BitSet rows = selectRows();
+    boolean csv = format.equalsIgnoreCase("csv");
+    int width = 3;
+    for (int k = rows.nextSetBit(0); k >= 0; k = rows.nextSetBit(k + 1))
+      width = Math.max(width, keys[k].length());
+    if (csv) {
+      writer.write("key");
+      for (String version : versions) writer.write("," + ResultSink.CsvSink.quote(version));
+    } else {
+      if (!quiet) writer.write("Legend: B = used and documented, U = used but undocumented, " +
+        "D = documented but never used, - = neither\n\n");
+      writer.write(String.format("%-" + width + "s", "key"));
+      for (String version : versions) writer.write(" " + version);
+    }
+    writer.write('\n');
+    for (int k = rows.nextSetBit(0); k >= 0; k = rows.nextSetBit(k + 1)) {
+      if (csv) {
+        writer.write(ResultSink.CsvSink.quote(keys[k]));
+        for (int v = 0; v < versions.size(); v++) {
+          writer.write(',');
+          writer.write(getStatus(k, v).getSymbol());
+        }
+      } else {
+        writer.write(String.format("%-" + width + "s", keys[k]));
+        for (int v = 0; v < versions.size(); v++) {
+          writer.write(' ');
+          writer.write(getStatus(k, v).getSymbol());
+          // align with the version header, but no trailing blanks
+          if (v < versions.size() - 1)
+            for (int i = 1; i < versions.get(v).length(); i++) writer.write(' ');
+        }
+      }
+      writer.write('\n');
+    }
+    writer.flush();
+  }
+
+  private void printSummary(PrintStream out) {
+    out.println();
+    out.println(String.format("%-12s %8s %10s %8s %12s %8s %14s %10s %8s", "version", "used",
+      "documented", "both", "undocumented", "dead", "+undocumented", "+dead", "fixed"));
+    for (int v = 0; v < versions.size(); v++) {
+      BitSet undocumented = undocumented(v);
+      BitSet dead = dead(v);
+      int newUndocumented = undocumented.cardinality(), newDead = dead.cardinality(), fixed = 0;
+      if (v > 0) {
+        BitSet bits = (BitSet) undocumented.clone();
+        bits.andNot(undocumented(v - 1));
+        newUndocumented = bits.cardinality();
+        bits = (BitSet) dead.clone();
+        bits.andNot(dead(v - 1));
+        newDead = bits.cardinality();
+        // previously undocumented or dead keys that are now both used and documented
+        bits = undocumented(v - 1);
+        bits.or(dead(v - 1));
+        bits.and(both(v));
+        fixed = bits.cardinality();
+      }
+      out.println(String.format("%-12s %8d %10d %8d %12d %8d %14d %10d %8d", versions.get(v),
+        used[v].cardinality(), documented[v].cardinality(), both(v).cardinality(),
+        undocumented.cardinality(), dead.cardinality(), newUndocumented, newDead, fixed));
+    }
+  }
+
+  @Override
+  public void run() {
+    try {
+      load();
+      Writer writer = outputFile != null ?
+        new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile), "UTF-8")) :
+        new BufferedWriter(new OutputStreamWriter(System.out));
+      try {
+        printMatrix(writer);
+      } finally {
+        if (outputFile != null) writer.close();
+      }
+      if (!quiet) printSummary(System.out);
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Main entry point. Starts the processing.
+   *
+   * @param args The command line arguments.
+   */
+  public static void main(String[] args) {
+    try {
+      CoverageMatrix cm = new CoverageMatrix();
+      JCommander jc = new JCommander(cm);
+      jc.setProgramName(CoverageMatrix.class.getSimpleName());
+      try {
+        jc.parse(args);
+        if (cm.printHelp) {
+          jc.usage();
+          System.exit(0);
+        }
+        if (cm.arguments == null || cm.arguments.size() % 3 != 0) {
+          System.err.println("ERROR: arguments must be specified in triples. Aborting.");
+          jc.usage();
+          System.exit(1);
+        }
+      } catch (Exception e) {
+        System.err.println(e.getMessage());
+        jc.usage();
+        System.exit(-1);
+      }
+      cm.run();
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+}
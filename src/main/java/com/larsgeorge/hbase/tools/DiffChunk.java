@@ -0,0 +1,94 @@
+package com.larsgeorge.hbase.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds the differences of a range of keys, and optionally their rendered text, per section of
+ * the report. The sections are the added and the removed keys of each version, followed by the
+ * changed keys.
+ */
+class DiffChunk {
+  private List<List<DiffEvent>> added;
+  private List<List<DiffEvent>> removed;
+  private List<List<DiffEvent>> changed = new ArrayList<List<DiffEvent>>();
+  private StringBuilder[] addedText;
+  private StringBuilder[] removedText;
+  private StringBuilder changedText = new StringBuilder();
+
+  /**
+   * Creates a new instance of this class.
+   *
+   * @param numVersions The number of versions compared.
+   */
+  DiffChunk(int numVersions) {
+    added = new ArrayList<List<DiffEvent>>(numVersions);
+    removed = new ArrayList<List<DiffEvent>>(numVersions);
+    addedText = new StringBuilder[numVersions];
+    removedText = new StringBuilder[numVersions];
+    for (int v = 0; v < numVersions; v++) {
+      added.add(new ArrayList<DiffEvent>());
+      removed.add(new ArrayList<DiffEvent>());
+      addedText[v] = new StringBuilder();
+      removedText[v] = new StringBuilder();
+    }
+  }
+
+  /**
+   * Returns the number of versions compared.
+   */
+  public int getVersionCount() {
+    return added.size();
+  }
+
+  /**
+   * Returns the added or renamed keys of the given version, sorted by key.
+   */
+  public List<DiffEvent> getAdded(int version) {
+    return added.get(version);
+  }
+
+  /**
+   * Returns the removed keys of the given version, sorted by key.
+   */
+  public List<DiffEvent> getRemoved(int version) {
+    return removed.get(version);
+  }
+
+  /**
+   * Returns the groups of changes, one per key with different properties across versions.
+   */
+  public List<List<DiffEvent>> getChanged() {
+    return changed;
+  }
+
+  public StringBuilder getAddedText(int version) {
+    return addedText[version];
+  }
+
+  public StringBuilder getRemovedText(int version) {
+    return removedText[version];
+  }
+
+  public StringBuilder getChangedText() {
+    return changedText;
+  }
+
+  /**
+   * Appends the differences of the directly following key range.
+   *
+   * @param other The differences to append.
+   * @return This instance.
+   */
+  public DiffChunk append(DiffChunk other) {
+    for (int v = 0; v < added.size(); v++) {
+      added.get(v).addAll(other.added.get(v));
+      removed.get(v).addAll(other.removed.get(v));
+      addedText[v].append(other.addedText[v]);
+      removedText[v].append(other.removedText[v]);
+    }
+    changed.addAll(other.changed);
+    changedText.append(other.changedText);
+    return this;
+  }
+}
@@ -0,0 +1,53 @@
+package com.larsgeorge.hbase.tools;
+
+/**
+ * A single difference found while comparing configurations.
+ */
+public class DiffEvent {
+  private ConfigurationUtils.Action action;
+  private Property property;
+  private Property property2;
+  private String version;
+
+  /**
+   * Creates a new instance of this class.
+   *
+   * @param action The kind of difference.
+   * @param property The property the difference is about.
+   * @param property2 The optional related property, i.e. the old one of a renamed property.
+   * @param version The version the difference was found in.
+   */
+  DiffEvent(ConfigurationUtils.Action action, Property property, Property property2,
+    String version) {
+    this.action = action;
+    this.property = property;
+    this.property2 = property2;
+    this.version = version;
+  }
+
+  public ConfigurationUtils.Action getAction() {
+    return action;
+  }
+
+  public Property getProperty() {
+    return property;
+  }
+
+  public Property getProperty2() {
+    return property2;
+  }
+
+  public String getVersion() {
+    return version;
+  }
+
+  @Override
+  public String toString() {
+    return "DiffEvent{" +
+      "action=" + action +
+      ", property=" + property +
+      ", property2=" + property2 +
+      ", version='" + version + '\'' +
+      '}';
+  }
+}
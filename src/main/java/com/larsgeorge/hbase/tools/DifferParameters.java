@@ -2,6 +2,7 @@ package com.larsgeorge.hbase.tools;
 
 import com.beust.jcommander.Parameter;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -15,6 +16,10 @@ public class DifferParameters {
   public boolean printHelp = false;
   @Parameter(names = { "-t", "--template" }, description = "Optional template name")
   public String templateName = null;
+  @Parameter(names = { "-r", "--report" }, description = "Render the whole report in one " +
+    "pass with the given template, a file or one of the bundled report-minimal.mustache and " +
+    "report-asciidoc.mustache")
+  public String reportTemplate = null;
   @Parameter(names = { "-q", "--quiet"}, description = "Only print data, no info text")
   public boolean quiet = false;
   @Parameter(names = { "-s", "--sort"}, description = "Sort the output by configuration keys")
@@ -27,6 +32,35 @@ public class DifferParameters {
   @Parameter(names = { "-d", "--ignore-description"}, description = "Ignore differences in the " +
     "description of properties")
   public boolean ignoreDescription = false;
+  @Parameter(names = { "-f", "--format"}, description = "Input format of the configuration " +
+    "files, one of: xml, json. Default is to detect it from the file extension")
+  public String format = null;
+  @Parameter(names = { "--threads"}, description = "Number of threads to parse the " +
+    "configurations and compute the differences with, splitting the sorted keys into ranges " +
+    "processed in parallel")
+  public int threads = 1;
+  @Parameter(names = { "--store"}, description = "Record the configurations and their " +
+    "differences in the history store in the given directory")
+  public String store = null;
+  @Parameter(names = { "-Q", "--query"}, description = "Print the keys matching a query " +
+    "over the versions instead of the differences, e.g. \"present:0.90..0.94 & " +
+    "!present:0.96\" or \"addedAfter:0.92 & changes>2\"")
+  public String query = null;
+  @Parameter(names = { "--include"}, description = "Only compare the keys in the given " +
+    "namespace, e.g. hbase.regionserver")
+  public List<String> includes = new ArrayList<String>();
+  @Parameter(names = { "--exclude"}, description = "Skip the keys in the given namespace, " +
+    "e.g. dfs.namenode")
+  public List<String> excludes = new ArrayList<String>();
+  @Parameter(names = { "--summary"}, description = "Print the number of added, removed, and " +
+    "changed keys per namespace, down to the given number of segments")
+  public int summaryDepth = 0;
+  @Parameter(names = { "--renames"}, description = "Detect renamed keys with the given mapping " +
+    "file first, mapping old to new keys as in fs.default.name=fs.defaultFS")
+  public List<String> renameFiles = new ArrayList<String>();
+  @Parameter(names = { "--hadoopRenames"}, description = "Detect renamed keys with the " +
+    "deprecated keys registered by the Hadoop and HBase classes on the class path first")
+  public boolean hadoopRenames = false;
 
 
 }
@@ -0,0 +1,268 @@
+package com.larsgeorge.hbase.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares whole directories of configuration files, such as the <code>conf/</code> directory
+ * of each version. The files are matched by name across the versions, all of them parsed on a
+ * pool of workers, and each set of files with the same name diffed on the same pool. A file
+ * missing in a version counts as an empty configuration.
+ * <p/>
+ * The report has the differences of each file, in the order of the file names, followed by a
+ * combined report over all files. The latter lists the added and removed keys of each version,
+ * except for keys that only moved from one file to another, which are listed as moved.
+ */
+class DirectoryDiffer {
+
+  private ConfigDiffer differ;
+  private DifferParameters params;
+  private ConfigurationUtils utils;
+  private PrintStream out;
+  private String prefix;
+  private ConfigurationFormat format;
+
+  /**
+   * Creates a new instance of this class.
+   *
+   * @param differ The differ parsing, and possibly sharing, the configurations.
+   * @param params The parameters of the differ.
+   * @param utils The helper rendering the differences.
+   * @param out The stream to print to.
+   */
+  DirectoryDiffer(ConfigDiffer differ, DifferParameters params, ConfigurationUtils utils,
+    PrintStream out) {
+    this.differ = differ;
+    this.params = params;
+    this.utils = utils;
+    this.out = out;
+    this.prefix = params.prefix != null ? params.prefix : "";
+    this.format = params.format != null ? ConfigurationFormat.fromName(params.format) : null;
+  }
+
+  /**
+   * Checks whether the given file is a configuration file, i.e. has the extension of the
+   * requested format, or of any supported format if none is given.
+   */
+  private boolean isConfigFile(File file) {
+    if (!file.isFile()) return false;
+    String name = file.getName().toLowerCase();
+    if (format != null) return name.endsWith("." + format.name().toLowerCase());
+    for (ConfigurationFormat f : ConfigurationFormat.values()) {
+      if (name.endsWith("." + f.name().toLowerCase())) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Diffs the given directories and prints the per file and the combined report.
+   *
+   * @param dirs The directories, in version order.
+   * @throws Exception When parsing or diffing fails.
+   */
+  public void execute(List<ConfigurationInfo> dirs) throws Exception {
+    TreeSet<String> names = new TreeSet<String>();
+    for (ConfigurationInfo dir : dirs) {
+      File[] files = new File(dir.getPath()).listFiles();
+      if (files == null) continue;
+      for (File file : files) if (isConfigFile(file)) names.add(file.getName());
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(params.threads, 1));
+    try {
+      // parse all files first, the diffs wait for the files they need
+      final Map<String, List<Future<Configuration>>> parsed =
+        new TreeMap<String, List<Future<Configuration>>>();
+      for (String name : names) {
+        List<Future<Configuration>> versions = new ArrayList<Future<Configuration>>();
+        for (ConfigurationInfo dir : dirs) {
+          File file = new File(dir.getPath(), name);
+          final ConfigurationInfo info = isConfigFile(file) ?
+            new ConfigurationInfo(file.getPath(), dir.getVersion(), format) : null;
+          versions.add(pool.submit(new Callable<Configuration>() {
+            @Override
+            public Configuration call() throws Exception {
+              return info != null ? differ.loadConfig(info) : new Configuration();
+            }
+          }));
+        }
+        parsed.put(name, versions);
+      }
+      Map<String, Future<String>> reports = new TreeMap<String, Future<String>>();
+      final KeyTrie summary = new KeyTrie();
+      for (final String name : names) {
+        reports.put(name, pool.submit(new Callable<String>() {
+          @Override
+          public String call() throws Exception {
+            ArrayList<Configuration> configs = new ArrayList<Configuration>();
+            for (Future<Configuration> future : parsed.get(name)) configs.add(get(future));
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            PrintStream ps = new PrintStream(buffer, false, "UTF-8");
+            DiffChunk chunk = utils.copy(ps, 1).diff(
+              new ConfigurationDiff(configs, differ.getRenames()), params.summaryDepth > 0);
+            ps.flush();
+            if (chunk != null) {
+              synchronized (summary) {
+                summary.addAll(chunk);
+              }
+            }
+            return buffer.toString("UTF-8");
+          }
+        }));
+      }
+      for (Map.Entry<String, Future<String>> entry : reports.entrySet()) {
+        out.println(prefix + "File: " + entry.getKey());
+        out.print(get(entry.getValue()));
+      }
+      printCombined(dirs, parsed);
+      if (params.summaryDepth > 0) differ.printSummary(summary);
+    } finally {
+      pool.shutdown();
+    }
+    out.flush();
+  }
+
+  private static <T> T get(Future<T> future) throws Exception {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+    }
+  }
+
+  /**
+   * Returns the names of the files each key of a version is in.
+   */
+  private TreeMap<String, TreeSet<String>> getKeyFiles(
+    Map<String, List<Future<Configuration>>> parsed, int version) throws Exception {
+    TreeMap<String, TreeSet<String>> keyFiles = new TreeMap<String, TreeSet<String>>();
+    for (Map.Entry<String, List<Future<Configuration>>> entry : parsed.entrySet()) {
+      for (String key : get(entry.getValue().get(version)).getKeys()) {
+        TreeSet<String> files = keyFiles.get(key);
+        if (files == null) {
+          files = new TreeSet<String>();
+          keyFiles.put(key, files);
+        }
+        files.add(entry.getKey());
+      }
+    }
+    return keyFiles;
+  }
+
+  /**
+   * Prints the differences across all files, per version. A key present in both versions,
+   * but in different files, is reported as moved instead of added and removed.
+   */
+  private void printCombined(List<ConfigurationInfo> dirs,
+    Map<String, List<Future<Configuration>>> parsed) throws Exception {
+    boolean quiet = params.quiet;
+    if (!quiet) {
+      out.println(prefix + "=========================================================");
+      out.println(prefix + "Combined differences across " + parsed.size() + " files");
+      out.println(prefix + "=========================================================");
+    }
+    TreeMap<String, TreeSet<String>> previous = getKeyFiles(parsed, 0);
+    // the version previous was taken from, skipping those without any keys
+    int previousVersion = 0;
+    int totalMoved = 0;
+    for (int v = 1; v < dirs.size(); v++) {
+      TreeMap<String, TreeSet<String>> current = getKeyFiles(parsed, v);
+      // like the file differ, versions without any keys are not checked
+      if (current.isEmpty()) continue;
+      String version = dirs.get(v).getVersion();
+      Set<String> renamed = getRenamedKeys(parsed, previousVersion, v, previous, current);
+      List<String> lines = new ArrayList<String>();
+      int added = 0, renamedCount = 0, removed = 0, moved = 0;
+      for (Map.Entry<String, TreeSet<String>> entry : current.entrySet()) {
+        String key = entry.getKey();
+        TreeSet<String> before = previous.get(key);
+        if (before == null) {
+          boolean isRenamed = renamed.contains(key);
+          lines.add((isRenamed ? "Renamed: " : "Added: ") + key + " in " +
+            join(entry.getValue()));
+          if (isRenamed) renamedCount++; else added++;
+        } else if (!before.equals(entry.getValue())) {
+          lines.add("Moved: " + key + " from " + join(before) + " to " + join(entry.getValue()));
+          moved++;
+        }
+      }
+      for (Map.Entry<String, TreeSet<String>> entry : previous.entrySet()) {
+        if (current.containsKey(entry.getKey())) continue;
+        lines.add("Removed: " + entry.getKey() + " in " + join(entry.getValue()));
+        removed++;
+      }
+      if (!lines.isEmpty()) {
+        if (!quiet) out.println(prefix + "Keys across files in " + version + ":");
+        for (String line : lines) out.println(prefix + line);
+        if (!quiet) out.println(prefix + "Summary for " + version + ": " + added + " added, " +
+          renamedCount + " renamed, " + removed + " removed, and " + moved +
+          " moved properties.");
+        out.println();
+      }
+      totalMoved += moved;
+      previous = current;
+      previousVersion = v;
+    }
+    if (!quiet) out.println(prefix + "Total: " + totalMoved + " moved properties.");
+    if (!quiet) out.println(prefix +
+      "=========================================================");
+  }
+
+  /**
+   * Returns the keys detected as renamed in the given version, compared to the given earlier
+   * one. Known renames are checked across all files, since a new key may well replace an old
+   * one in another file, while matching descriptions only count within the same file, as in the
+   * file differ.
+   */
+  private Set<String> getRenamedKeys(Map<String, List<Future<Configuration>>> parsed,
+    int previousVersion, int version, Map<String, TreeSet<String>> previous,
+    Map<String, TreeSet<String>> current)
+    throws Exception {
+    Set<String> renamed = new HashSet<String>();
+    RenameTable renames = differ.getRenames();
+    if (renames != null) {
+      for (String key : current.keySet()) {
+        if (previous.containsKey(key)) continue;
+        for (String oldKey : renames.getOldKeys(key)) {
+          if (previous.containsKey(oldKey) && !current.containsKey(oldKey)) {
+            renamed.add(key);
+            break;
+          }
+        }
+      }
+    }
+    for (List<Future<Configuration>> versions : parsed.values()) {
+      Configuration conf = get(versions.get(version));
+      Configuration prevConf = get(versions.get(previousVersion));
+      for (String key : conf.getKeys()) {
+        if (prevConf.containsKey(key)) continue;
+        // the same rule as in ConfigurationDiff, a new key with a known description
+        String description = conf.getProperty(key).getDescription();
+        if (!Property.NULL.equals(description) &&
+          prevConf.getPropertyByDescription(description) != null) renamed.add(key);
+      }
+    }
+    return renamed;
+  }
+
+  private static String join(Set<String> names) {
+    StringBuilder sb = new StringBuilder();
+    for (String name : names) {
+      if (sb.length() > 0) sb.append(", ");
+      sb.append(name);
+    }
+    return sb.toString();
+  }
+}
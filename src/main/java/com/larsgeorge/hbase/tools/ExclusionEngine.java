@@ -0,0 +1,262 @@
+package com.larsgeorge.hbase.tools;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which entries a directory walk skips. The exclusion globs given on the command line
+ * are compiled once and matched against the path of every directory. Optionally the rules of
+ * the <code>.gitignore</code> files found along the way apply as well, each file to the
+ * directory it is in and everything below it. As with git, the last matching rule wins, rules
+ * of deeper files come after those of their parents, and a rule starting with <code>!</code>
+ * includes an entry again. Excluded directories are pruned, so nothing below them is listed.
+ * <p/>
+ * The engine follows the walk: {@link #enter(File)} and {@link #leave(File)} must be called
+ * for every directory walked into, in the order of the walk.
+ */
+class ExclusionEngine {
+
+  /**
+   * A single compiled rule, counting how many entries it excluded.
+   */
+  static class Rule {
+    private String source;
+    private String text;
+    private PathMatcher glob;
+    private Pattern pattern;
+    private boolean negated;
+    private boolean directoryOnly;
+    private int skipped = 0;
+
+    /**
+     * Creates an exclusion glob rule, matched against the full path.
+     */
+    Rule(String glob) {
+      this.source = "--exclude";
+      this.text = glob;
+      this.glob = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+      this.directoryOnly = true;
+    }
+
+    /**
+     * Creates a rule from a <code>.gitignore</code> line, matched against the path relative
+     * to the directory of the file.
+     */
+    Rule(String source, String line) {
+      this.source = source;
+      this.text = line;
+      String p = line;
+      if (p.startsWith("!")) {
+        negated = true;
+        p = p.substring(1);
+      } else if (p.startsWith("\\!") || p.startsWith("\\#")) {
+        p = p.substring(1);
+      }
+      if (p.endsWith("/")) {
+        directoryOnly = true;
+        p = p.substring(0, p.length() - 1);
+      }
+      // a pattern without a slash matches at any depth, otherwise relative to the file
+      boolean anchored = p.indexOf('/') >= 0;
+      if (p.startsWith("/")) p = p.substring(1);
+      pattern = Pattern.compile((anchored ? "" : "(?:.*/)?") + globToRegex(p));
+    }
+
+    public String getSource() {
+      return source;
+    }
+
+    public String getText() {
+      return text;
+    }
+
+    public int getSkipped() {
+      return skipped;
+    }
+
+    boolean matches(File file, String relativePath, boolean directory) {
+      if (directoryOnly && !directory) return false;
+      if (glob != null) return glob.matches(file.toPath());
+      return pattern.matcher(relativePath).matches();
+    }
+  }
+
+  /**
+   * The rules of one <code>.gitignore</code> file and the directory they apply to.
+   */
+  private static class Scope {
+    private String base;
+    private List<Rule> rules;
+
+    Scope(String base, List<Rule> rules) {
+      this.base = base;
+      this.rules = rules;
+    }
+  }
+
+  private List<Rule> excludes = new ArrayList<Rule>();
+  private boolean gitignore;
+  private Deque<Scope> scopes = new ArrayDeque<Scope>();
+  private List<Rule> allRules = new ArrayList<Rule>();
+
+  /**
+   * Creates a new instance of this class.
+   *
+   * @param excludeGlobs The globs of directories to exclude.
+   * @param gitignore Whether to honor <code>.gitignore</code> files.
+   */
+  ExclusionEngine(List<String> excludeGlobs, boolean gitignore) {
+    for (String glob : excludeGlobs) excludes.add(new Rule(glob));
+    allRules.addAll(excludes);
+    this.gitignore = gitignore;
+  }
+
+  /**
+   * Checks whether the given entry is excluded, counting the skip for the deciding rule.
+   *
+   * @param file The file or directory to check.
+   * @param directory Whether the entry is a directory.
+   * @return <code>true</code> when the entry should be skipped.
+   */
+  public boolean isExcluded(File file, boolean directory) {
+    for (Rule rule : excludes) {
+      if (rule.matches(file, null, directory)) {
+        rule.skipped++;
+        return true;
+      }
+    }
+    if (scopes.isEmpty()) return false;
+    String path = file.getPath();
+    if (File.separatorChar != '/') path = path.replace(File.separatorChar, '/');
+    Rule decision = null;
+    // from the outermost to the innermost file, the last match decides
+    for (Iterator<Scope> it = scopes.descendingIterator(); it.hasNext(); ) {
+      Scope scope = it.next();
+      if (scope.rules.isEmpty() || !path.startsWith(scope.base)) continue;
+      String relative = path.substring(scope.base.length());
+      for (Rule rule : scope.rules) {
+        if (rule.matches(file, relative, directory)) decision = rule;
+      }
+    }
+    if (decision == null || decision.negated) return false;
+    decision.skipped++;
+    return true;
+  }
+
+  /**
+   * Called when the walk enters a directory, reading its <code>.gitignore</code> if enabled.
+   *
+   * @param directory The directory entered.
+   * @throws IOException When reading the ignore file fails.
+   */
+  public void enter(File directory) throws IOException {
+    if (!gitignore) return;
+    List<Rule> rules = Collections.emptyList();
+    File ignoreFile = new File(directory, ".gitignore");
+    if (ignoreFile.isFile()) {
+      rules = new ArrayList<Rule>();
+      int n = 0;
+      for (String line : FileUtils.readLines(ignoreFile, "UTF-8")) {
+        n++;
+        String trimmed = line.trim();
+        if (trimmed.length() == 0 || trimmed.startsWith("#")) continue;
+        rules.add(new Rule(ignoreFile.getPath() + ":" + n, trimmed));
+      }
+      allRules.addAll(rules);
+    }
+    String base = directory.getPath();
+    if (File.separatorChar != '/') base = base.replace(File.separatorChar, '/');
+    scopes.push(new Scope(base.endsWith("/") ? base : base + "/", rules));
+  }
+
+  /**
+   * Called when the walk leaves a directory.
+   *
+   * @param directory The directory left.
+   */
+  public void leave(File directory) {
+    if (gitignore) scopes.pop();
+  }
+
+  /**
+   * Returns all rules, in the order they were loaded.
+   */
+  public List<Rule> getRules() {
+    return allRules;
+  }
+
+  /**
+   * Prints the number of entries each rule skipped, leaving out rules that skipped nothing.
+   *
+   * @param out The stream to print to.
+   */
+  public void printSummary(PrintStream out) {
+    boolean header = false;
+    for (Rule rule : allRules) {
+      if (rule.skipped == 0) continue;
+      if (!header) {
+        out.println("Entries skipped per rule:");
+        header = true;
+      }
+      out.println(String.format("%8d  %s  %s", rule.skipped, rule.source, rule.text));
+    }
+  }
+
+  /**
+   * Converts a <code>.gitignore</code> glob into a regular expression.
+   */
+  static String globToRegex(String glob) {
+    StringBuilder regex = new StringBuilder();
+    int n = glob.length();
+    for (int i = 0; i < n; i++) {
+      char c = glob.charAt(i);
+      if (c == '*') {
+        if (i + 1 < n && glob.charAt(i + 1) == '*') {
+          boolean slashBefore = i == 0 || glob.charAt(i - 1) == '/';
+          boolean slashAfter = i + 2 < n && glob.charAt(i + 2) == '/';
+          if (slashBefore && slashAfter) {
+            // "**/" matches zero or more directories
+            regex.append("(?:.*/)?");
+            i += 2;
+          } else {
+            regex.append(".*");
+            i++;
+          }
+        } else {
+          regex.append("[^/]*");
+        }
+      } else if (c == '?') {
+        regex.append("[^/]");
+      } else if (c == '[') {
+        int end = glob.indexOf(']', i + 2);
+        if (end < 0) {
+          regex.append("\\[");
+        } else {
+          String set = glob.substring(i + 1, end);
+          if (set.startsWith("!")) set = "^" + set.substring(1);
+          regex.append('[').append(set.replace("\\", "\\\\")).append(']');
+          i = end;
+        }
+      } else if (c == '\\' && i + 1 < n) {
+        regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+      } else if ("().+^$|{}".indexOf(c) >= 0) {
+        regex.append('\\').append(c);
+      } else {
+        regex.append(c);
+      }
+    }
+    return regex.toString();
+  }
+}
@@ -0,0 +1,305 @@
+package com.larsgeorge.hbase.tools;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts found properties with a fixed memory budget. Once more than the given number of
+ * matches are held in memory, they are sorted and written to a temporary file, called a run.
+ * Iterating over the sorter then merges all runs, streaming the matches in key order. With
+ * unique results, matches with the same key are folded into one, adding up their counts, and
+ * keeping the file with the smallest path. The sort is stable, i.e. matches with the same key
+ * keep the order they were added in.
+ */
+class ExternalSorter implements Iterable<FindProperties.Match>, Closeable {
+
+  /**
+   * The number of runs of a level merged into one run of the next level. The merged runs grow
+   * by this factor with every level, so each match is only rewritten once per level.
+   */
+  private static final int MAX_FAN_IN = 64;
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private int threshold;
+  private boolean unique;
+  private File tmpDir;
+  private List<FindProperties.Match> buffer = new ArrayList<FindProperties.Match>();
+  private Map<String, FindProperties.Match> uniqueBuffer =
+    new LinkedHashMap<String, FindProperties.Match>();
+  // the runs of each level, the runs of higher levels hold older matches
+  private List<List<File>> levels = new ArrayList<List<File>>();
+  private boolean finished = false;
+
+  /**
+   * Creates a new instance of this class.
+   *
+   * @param threshold The maximum number of matches held in memory.
+   * @param unique Whether matches with the same key are folded into one.
+   * @param tmpDir The directory for the temporary files, or <code>null</code> for the default.
+   */
+  ExternalSorter(int threshold, boolean unique, File tmpDir) {
+    this.threshold = Math.max(threshold, 1);
+    this.unique = unique;
+    this.tmpDir = tmpDir;
+  }
+
+  /**
+   * Adds a match, spilling the matches in memory to disk when the threshold is reached.
+   *
+   * @param key The property key.
+   * @param file The file it was found in.
+   * @param count The number of occurrences.
+   * @throws IOException When writing a run fails.
+   */
+  public synchronized void add(String key, File file, int count) throws IOException {
+    if (finished) throw new IllegalStateException("Sorter is finished already");
+    if (unique) {
+      FindProperties.Match match = uniqueBuffer.get(key);
+      if (match != null) {
+        match.merge(file, count);
+      } else {
+        uniqueBuffer.put(key, new FindProperties.Match(key, file, count));
+      }
+    } else {
+      buffer.add(new FindProperties.Match(key, file, count));
+    }
+    if (buffer.size() + uniqueBuffer.size() >= threshold) spill();
+  }
+
+  /**
+   * Returns the number of runs on disk.
+   */
+  public synchronized int getNumRuns() {
+    int n = 0;
+    for (List<File> runs : levels) n += runs.size();
+    return n;
+  }
+
+  private List<FindProperties.Match> sortBuffer() {
+    List<FindProperties.Match> sorted = unique ?
+      new ArrayList<FindProperties.Match>(uniqueBuffer.values()) : buffer;
+    Collections.sort(sorted);
+    buffer = new ArrayList<FindProperties.Match>();
+    uniqueBuffer = new LinkedHashMap<String, FindProperties.Match>();
+    return sorted;
+  }
+
+  private void spill() throws IOException {
+    File run = writeRun(sortBuffer().iterator());
+    for (int level = 0; run != null; level++) {
+      if (level == levels.size()) levels.add(new ArrayList<File>());
+      List<File> runs = levels.get(level);
+      runs.add(run);
+      run = null;
+      if (runs.size() >= MAX_FAN_IN) {
+        // keep the number of open files bounded by merging a full level into the next one
+        run = writeRun(new MergeIterator(openRuns(runs)));
+        for (File file : runs) file.delete();
+        runs.clear();
+      }
+    }
+  }
+
+  /**
+   * Returns all runs, oldest first, i.e. from the highest level down.
+   */
+  private List<File> getRuns() {
+    List<File> runs = new ArrayList<File>();
+    for (int level = levels.size() - 1; level >= 0; level--) runs.addAll(levels.get(level));
+    return runs;
+  }
+
+  private File writeRun(Iterator<FindProperties.Match> matches) throws IOException {
+    File run = File.createTempFile("findprops-", ".run", tmpDir);
+    run.deleteOnExit();
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+      new FileOutputStream(run), BUFFER_SIZE));
+    try {
+      while (matches.hasNext()) {
+        FindProperties.Match match = matches.next();
+        out.writeUTF(match.getKey());
+        out.writeUTF(match.getFile().getPath());
+        out.writeInt(match.getCount());
+      }
+    } finally {
+      out.close();
+      if (matches instanceof Closeable) ((Closeable) matches).close();
+    }
+    return run;
+  }
+
+  private List<Iterator<FindProperties.Match>> openRuns(Collection<File> files)
+    throws IOException {
+    List<Iterator<FindProperties.Match>> readers =
+      new ArrayList<Iterator<FindProperties.Match>>();
+    for (File file : files) readers.add(new RunReader(file));
+    return readers;
+  }
+
+  /**
+   * Iterates over all matches in key order. Can be called more than once, but no more matches
+   * can be added afterwards.
+   */
+  @Override
+  public synchronized Iterator<FindProperties.Match> iterator() {
+    if (!finished) {
+      buffer = sortBuffer();
+      finished = true;
+    }
+    try {
+      List<Iterator<FindProperties.Match>> sources = openRuns(getRuns());
+      // the remainder in memory was added last, so it goes last to keep the order stable
+      sources.add(buffer.iterator());
+      return new MergeIterator(sources);
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed opening sorted runs", e);
+    }
+  }
+
+  /**
+   * Removes all temporary files.
+   */
+  @Override
+  public synchronized void close() {
+    for (File run : getRuns()) run.delete();
+    levels.clear();
+  }
+
+  /**
+   * Reads the matches of a single run.
+   */
+  private static class RunReader implements Iterator<FindProperties.Match>, Closeable {
+    private DataInputStream in;
+    private FindProperties.Match next = null;
+
+    RunReader(File file) throws IOException {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+      advance();
+    }
+
+    private void advance() {
+      try {
+        String key = in.readUTF();
+        next = new FindProperties.Match(key, new File(in.readUTF()), in.readInt());
+      } catch (EOFException e) {
+        next = null;
+        close();
+      } catch (IOException e) {
+        close();
+        throw new IllegalStateException("Failed reading sorted run", e);
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public FindProperties.Match next() {
+      if (next == null) throw new NoSuchElementException();
+      FindProperties.Match match = next;
+      advance();
+      return match;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+      IOUtils.closeQuietly(in);
+    }
+  }
+
+  /**
+   * Merges sorted sources into one sorted stream, folding duplicates if unique results are
+   * requested. Ties are broken by the index of the source.
+   */
+  private class MergeIterator implements Iterator<FindProperties.Match>, Closeable {
+    private List<Iterator<FindProperties.Match>> sources;
+    private PriorityQueue<Object[]> heads;
+    private FindProperties.Match next = null;
+
+    MergeIterator(List<Iterator<FindProperties.Match>> sources) {
+      this.sources = sources;
+      heads = new PriorityQueue<Object[]>(Math.max(sources.size(), 1),
+        new Comparator<Object[]>() {
+          @Override
+          public int compare(Object[] h1, Object[] h2) {
+            int res = ((FindProperties.Match) h1[0]).compareTo((FindProperties.Match) h2[0]);
+            return res != 0 ? res : (Integer) h1[1] - (Integer) h2[1];
+          }
+        });
+      for (int i = 0; i < sources.size(); i++) pull(i);
+      next = poll();
+    }
+
+    private void pull(int source) {
+      Iterator<FindProperties.Match> it = sources.get(source);
+      if (it.hasNext()) heads.add(new Object[] { it.next(), source });
+    }
+
+    private FindProperties.Match poll() {
+      Object[] head = heads.poll();
+      if (head == null) return null;
+      pull((Integer) head[1]);
+      return (FindProperties.Match) head[0];
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public FindProperties.Match next() {
+      if (next == null) throw new NoSuchElementException();
+      FindProperties.Match match = next;
+      next = poll();
+      if (unique) {
+        // copy, so that folding does not change the matches still held in memory
+        match = new FindProperties.Match(match.getKey(), match.getFile(), match.getCount());
+        while (next != null && next.getKey().equals(match.getKey())) {
+          match.merge(next.getFile(), next.getCount());
+          next = poll();
+        }
+      }
+      return match;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+      for (Iterator<FindProperties.Match> source : sources) {
+        if (source instanceof Closeable) IOUtils.closeQuietly((Closeable) source);
+      }
+    }
+  }
+}
@@ -1,8 +1,6 @@
 package com.larsgeorge.hbase.tools;
 
 import java.io.*;
-import java.nio.file.FileSystems;
-import java.nio.file.PathMatcher;
 import java.text.*;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
@@ -15,9 +13,11 @@ import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import org.apache.commons.io.*;
 import org.apache.commons.io.filefilter.*;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.xml.sax.SAXException;
 
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 
 /**
  * Scans the given subdirectories to look for configuration properties embedded
@@ -27,8 +27,6 @@ import javax.xml.parsers.ParserConfigurationException;
  */
 public class FindProperties implements Runnable {
 
-  private static String defaultExpression = "\"(\\p{Alpha}\\w+\\.){%d,}(\\p{Alpha}\\w+)\"";
-
   @Parameter(names = { "-v", "--verbose" })
   private boolean verbose = false;
   @Parameter(names = "--debug", description = "Debug mode")
@@ -52,6 +50,9 @@ public class FindProperties implements Runnable {
   private String configName = null;
   @Parameter(names = { "-p", "--threads" }, description = "Number of threads to use")
   private int numThreads = 3;
+  @Parameter(names = "--chunkSize", description = "Split files larger than this many megabytes " +
+    "into chunks of about that size, which are scanned in parallel. 0 scans every file as a whole")
+  private int chunkSizeMB = 16;
   @Parameter(names = {"-u", "--unique"}, description = "Show only unique results")
   private boolean unique = false;
   @Parameter(names = {"-s", "--sorted"}, description = "Show results sorted")
@@ -60,15 +61,84 @@ public class FindProperties implements Runnable {
   private boolean printFiles = false;
   @Parameter(names = "--emitAsXml", description = "Emit all found properties as an Hadoop XML configuration")
   private boolean emitAsXml = false;
+  @Parameter(names = {"-f", "--format"}, description = "Output format, one of: text, xml, " +
+    "jsonl, csv. The last two emit the key, file, and count of each result")
+  private String outputFormat = null;
+  @Parameter(names = "--java", description = "Tokenize Java sources, resolving string " +
+    "constants across files, and report where each key is defined and used")
+  private boolean javaAware = false;
+  @Parameter(names = "--plainXml", description = "Scan Hadoop configuration files like any " +
+    "other XML file, instead of parsing them and reporting their keys as declared keys")
+  private boolean plainXml = false;
+  @Parameter(names = "--spillThreshold", description = "Sort with a fixed memory budget, " +
+    "spilling sorted runs to disk once more than this many matches are held in memory")
+  private int spillThreshold = 0;
+  @Parameter(names = "--tmpDir", description = "Directory for the temporary files of the " +
+    "spill mode, defaults to the system temporary directory")
+  private String tmpDir = null;
   @Parameter(names = {"-o", "--outputFile"}, description = "Write output to the specified file, not to the console")
   private String outputFile = null;
   @Parameter(names = "--exclude", description = "Exclude the given directory.")
   private List<String> exclude = new ArrayList<String>();
+  @Parameter(names = "--gitignore", description = "Skip the files and directories ignored by " +
+    "the .gitignore files found while scanning")
+  private boolean gitignore = false;
+  @Parameter(names = "--where", description = "Print the file, line, and column of every " +
+    "usage of the given key")
+  private List<String> whereKeys = new ArrayList<String>();
+  @Parameter(names = "--keysIn", description = "Print the keys used in the given file, " +
+    "relative to the scanned directory")
+  private List<String> keysInFiles = new ArrayList<String>();
+  @Parameter(names = "--approx", description = "Only estimate the number of unique matches " +
+    "and the most referenced keys, in constant memory")
+  private boolean approx = false;
+  @Parameter(names = "--approxPrecision", description = "Precision of the unique estimate, " +
+    "the standard error being 1.04 / sqrt(2^precision)")
+  private int approxPrecision = 14;
+  @Parameter(names = "--approxError", description = "Error of the reference counts, relative " +
+    "to the number of matches")
+  private double approxError = 0.001;
+  @Parameter(names = "--top", description = "Number of most referenced keys to report with " +
+    "--approx")
+  private int topN = 20;
+  @Parameter(names = "--shards", description = "Scan with this many worker processes, each " +
+    "scanning a share of the files")
+  private int numShards = 0;
+  @Parameter(names = "--partition", description = "How files are assigned to the shards, one " +
+    "of: size (bins of about the same total size), hash (by the hash of the path)")
+  private String partition = "size";
+  @Parameter(names = "--shardDir", description = "Directory for the list and result files of " +
+    "the shards, defaults to the system temporary directory")
+  private String shardDir = null;
+  @Parameter(names = "--shardLauncher", description = "Command the workers are started with, " +
+    "e.g. \"ssh node{shard}\", defaults to starting them locally")
+  private String shardLauncher = null;
+  @Parameter(names = "--workerOpts", description = "Space separated JVM options for the " +
+    "workers, e.g. \"-Xmx2g\"")
+  private String workerOpts = null;
+  @Parameter(names = "--shardFiles", description = "Worker mode: scan the files listed in the " +
+    "given file, as started by the coordinator", hidden = true)
+  private String shardFiles = null;
+  @Parameter(names = "--shardOutput", description = "Worker mode: the file the matches are " +
+    "written to", hidden = true)
+  private String shardOutput = null;
 
+  private PrintStream out = System.out;
   private ExecutorService pool = null;
-  private Results results = new Results();
+  private OccurrenceIndex results = new OccurrenceIndex();
   private Statistics statistics = new Statistics();
-  private List<String> finalProperties = new ArrayList<String>();
+  private List<Match> finalProperties = new ArrayList<Match>();
+  private ResultSink sink = null;
+  private ExclusionEngine exclusions = null;
+  private ExternalSorter sorter = null;
+  private ShardCoordinator.ShardWriter shardWriter = null;
+  private ApproximateStatistics approximate = null;
+  private Pattern pattern = null;
+  private SortedMap<String, JavaConstantResolver.KeyReport> javaKeys = null;
+  private SortedMap<String, SortedSet<String>> declaredKeys =
+    new TreeMap<String, SortedSet<String>>();
+  private XmlConfigurationReader configReader = new XmlConfigurationReader();
+  private ConfigurationUtils configUtils = null;
 
   public enum FileTypes {
     ANY(null),
@@ -108,29 +178,59 @@ public class FindProperties implements Runnable {
     int numMatchesFound = 0;
     int numUniqueMatchesFound = 0;
     int numHiddenProperties = 0;
+    int numFilesWithMatches = 0;
+    int numConfigFiles = 0;
   }
 
   /**
-   * Holds the results.
+   * A found property, with the file it was (first) found in and its number of occurrences.
    */
-  class Results {
-    private Map<File, List<String>> matched = new LinkedHashMap<File, List<String>>();
+  static class Match implements Comparable<Match> {
+    private String key;
+    private File file;
+    private int count;
+
+    Match(String key, File file, int count) {
+      this.key = key;
+      this.file = file;
+      this.count = count;
+    }
+
+    public String getKey() {
+      return key;
+    }
+
+    public File getFile() {
+      return file;
+    }
+
+    public int getCount() {
+      return count;
+    }
 
-    public Map<File, List<String>> getMatched() {
-      return matched;
+    public void incrementCount() {
+      count++;
+    }
+
+    public void addCount(int count) {
+      this.count += count;
     }
 
     /**
-     * Adds all values of another result instance to this one.
+     * Folds in the occurrences of the same key in another file, keeping the file with the
+     * smallest path, so that the reported file does not depend on the order of the scan.
      *
-     * @param results  The other result instance.
+     * @param file The other file.
+     * @param count The number of occurrences in it.
      */
-    public synchronized void add(Results results) {
-      matched.putAll(results.getMatched());
+    public void merge(File file, int count) {
+      if (file.getPath().compareTo(this.file.getPath()) < 0) this.file = file;
+      this.count += count;
     }
 
-    public void addFileResults(File file, List<String> matches) {
-      matched.put(file, matches);
+    @Override
+    public int compareTo(Match other) {
+      return key.compareTo(other.key);
     }
   }
 
@@ -141,9 +241,14 @@ public class FindProperties implements Runnable {
 
     private File file = null;
     private int fileNo = -1;
+    private ChunkedFile chunked = null;
+    private int chunk = -1;
     private List<String> matches = new ArrayList<String>();
-    private Results results = null;
+    private int[] lines = new int[16];
+    private int[] columns = new int[16];
+    private OccurrenceIndex results = null;
     private Matcher matcher = null;
+    private PropertyLiteralMatcher literalMatcher = null;
     private Statistics statistics = null;
 
     /**
@@ -153,16 +258,41 @@ public class FindProperties implements Runnable {
      * @param num The file number.
      * @param results The global results instance.
      */
-    public FileHandler(File file, int num, Results results, Statistics statistics) {
+    public FileHandler(File file, int num, OccurrenceIndex results, Statistics statistics) {
       this.file = file;
       this.fileNo = num;
       this.results = results;
       this.statistics = statistics;
-      String exp = expression != null ?
-        expression : String.format(defaultExpression, numFields - 1);
-      matcher = Pattern.compile(exp).matcher("");
+      if (pattern != null) {
+        matcher = pattern.matcher("");
+      } else {
+        literalMatcher = new PropertyLiteralMatcher(numFields);
+      }
     } // constructor
 
+    /**
+     * Creates a handler for a single chunk of a file.
+     *
+     * @param chunked The chunked file.
+     * @param chunk The index of the chunk.
+     * @param num The file number.
+     * @param results The global results instance.
+     */
+    public FileHandler(ChunkedFile chunked, int chunk, int num, OccurrenceIndex results,
+      Statistics statistics) {
+      this(chunked.file, num, results, statistics);
+      this.chunked = chunked;
+      this.chunk = chunk;
+    }
+
+    /**
+     * Opens the file, or only the chunk of it this handler is for.
+     */
+    private Reader openReader() throws IOException {
+      if (chunked == null) return getReader(file);
+      return getReader(file, chunked.bounds[chunk], chunked.bounds[chunk + 1]);
+    }
+
     /**
      * Called by thread, main processing method.
      *
@@ -181,50 +311,176 @@ public class FindProperties implements Runnable {
           path = path.substring(0, pos);
         }
       }
-      if (verbose) System.out.println("Processing " + fn + " [" + path + "]");
+      if (chunked != null)
+        fn += " (chunk " + (chunk + 1) + " of " + chunked.getChunkCount() + ")";
+      if (verbose) out.println("Processing " + fn + " [" + path + "]");
+      long n = 0;
+      if (chunked == null && isConfigCandidate(file)) {
+        Configuration conf = readConfiguration();
+        if (conf != null) {
+          if (verbose) out.println("\nParsed configuration (" + fn + " [" + path + "] #" +
+            fileNo + ") -> declared keys " + conf.getSize() + "\n");
+          handleDeclared(file, conf.getKeys());
+          return;
+        }
+      }
       try {
         matches.clear();
-        LineIterator it = getLineIterator(file);
-        try {
-          long n = 0;
-          while (it.hasNext()) {
-            if (verbose && n % 1000 == 0) System.out.print(".");
-            if (verbose && n % (80 * 1000) == 0 && n > 0) System.out.println();
-            String line = it.nextLine();
-            processLine(line);
-            n++;
-          }
-          synchronized (statistics) {
-            statistics.numMatchesFound = statistics.numMatchesFound + matches.size();
-          }
-          if (verbose) System.out.println("\nProcessed lines (" + fn + " [" + path + "] #" +
-              fileNo + ") -> " + n + ", matches -> " + matches.size() + "\n");
-        } finally {
-          LineIterator.closeQuietly(it);
-        }
+        n = literalMatcher != null ? scanChars() : scanLines();
+        if (verbose) out.println("\nProcessed lines (" + fn + " [" + path + "] #" +
+            fileNo + ") -> " + n + ", matches -> " + matches.size() + "\n");
       } catch (Exception e) {
         System.err.println("\nFailed processing " + fn + "\n");
       }
-      if (matches.size() > 0) {
-        synchronized (results) {
-          results.addFileResults(file, matches);
-        }
+      if (chunked != null) {
+        chunked.done(chunk, matches, lines, columns, n);
       } else {
-        if (verbose) System.out.println("No matches found, skipping file: " + file.getName());
+        handleMatches(file, matches, lines, columns);
       }
     } // run
 
+    /**
+     * Parses the file as a Hadoop style configuration.
+     *
+     * @return The configuration, or <code>null</code> when the file is some other XML file,
+     *   or not well-formed, and should be scanned as text instead.
+     */
+    private Configuration readConfiguration() {
+      InputStream in = null;
+      try {
+        in = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+        return configReader.readStreaming(in,
+          new ConfigurationInfo(file.getPath(), "declared", ConfigurationFormat.XML), configUtils);
+      } catch (XMLStreamException e) {
+        if (verbose) out.println("Not well-formed, scanning as text: " + file.getName());
+      } catch (IOException e) {
+        System.err.println("\nFailed processing " + file.getName() + "\n");
+      } finally {
+        IOUtils.closeQuietly(in);
+      }
+      return null;
+    }
+
+    /**
+     * Scans the file line by line using the custom regular expression.
+     *
+     * @return The number of lines processed.
+     * @throws IOException When reading the file fails.
+     */
+    private long scanLines() throws IOException {
+      LineIterator it = getLineIterator(openReader());
+      try {
+        long n = 0;
+        while (it.hasNext()) {
+          if (verbose) printProgress(n);
+          String line = it.nextLine();
+          n++;
+          processLine(line, (int) n);
+        }
+        return n;
+      } finally {
+        LineIterator.closeQuietly(it);
+      }
+    }
+
+    /**
+     * Scans the file in blocks of characters using the literal matcher. Each block is cut at
+     * its last line end, since a property never spans lines, and the remainder is carried over
+     * to the next block.
+     *
+     * @return The number of lines processed.
+     * @throws IOException When reading the file fails.
+     */
+    private long scanChars() throws IOException {
+      Reader reader = openReader();
+      try {
+        char[] buf = new char[64 * 1024]; // 64k blocks
+        int len = 0;
+        long n = 0;
+        int read;
+        while ((read = reader.read(buf, len, buf.length - len)) != -1) {
+          len += read;
+          int last = len - 1;
+          while (last >= 0 && buf[last] != '\n') last--;
+          if (last < 0) {
+            // no line end yet, make room for the rest of the line if needed
+            if (len == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+            continue;
+          }
+          n = scanBlock(buf, last + 1, n);
+          len -= last + 1;
+          System.arraycopy(buf, last + 1, buf, 0, len);
+        }
+        if (len > 0) n = scanBlock(buf, len, n) + 1;
+        return n;
+      } finally {
+        IOUtils.closeQuietly(reader);
+      }
+    }
+
+    /**
+     * Adds all property literals found in the given block to the matches, along with their
+     * line and column. The lines are counted while moving from one match to the next.
+     *
+     * @param buf The buffer holding the block.
+     * @param len The length of the block.
+     * @param n The number of lines processed so far.
+     * @return The updated number of lines.
+     */
+    private long scanBlock(char[] buf, int len, long n) {
+      literalMatcher.reset(buf, 0, len);
+      int pos = 0;
+      int lineStart = 0;
+      while (true) {
+        boolean found = literalMatcher.find();
+        int next = found ? literalMatcher.start() : len;
+        for (; pos < next; pos++) {
+          if (buf[pos] == '\n') {
+            if (verbose) printProgress(n);
+            n++;
+            lineStart = pos + 1;
+          }
+        }
+        if (!found) return n;
+        addMatch(literalMatcher.group(), (int) n + 1, next - lineStart + 1);
+      }
+    }
+
+    /**
+     * Adds a match and its position.
+     *
+     * @param match The matched text.
+     * @param line The line of the match, starting at 1.
+     * @param column The column of the match, starting at 1.
+     */
+    private void addMatch(String match, int line, int column) {
+      int i = matches.size();
+      if (i == lines.length) {
+        lines = Arrays.copyOf(lines, i * 2);
+        columns = Arrays.copyOf(columns, i * 2);
+      }
+      lines[i] = line;
+      columns[i] = column;
+      matches.add(match);
+    }
+
+    private void printProgress(long n) {
+      if (n % 1000 == 0) out.print(".");
+      if (n % (80 * 1000) == 0 && n > 0) out.println();
+    }
+
     /**
      * Branches off processing based on mode.
      *
      * @param line The current line to process.
+     * @param lineNo The number of the line, starting at 1.
      * @throws Exception When the date is corrupt or decryption fails.
      */
-    private void processLine(String line) {
+    private void processLine(String line, int lineNo) {
       try {
         if (line != null && line.length() > 0) {
           matcher.reset(line);
-          while (matcher.find()) matches.add(matcher.group());
+          while (matcher.find()) addMatch(matcher.group(), lineNo, matcher.start() + 1);
         }
       } catch (Throwable t) {
         System.err.println("\nFailed processing line " + line);
@@ -233,13 +489,86 @@ public class FindProperties implements Runnable {
     }
   } // FileHandler
 
+  /**
+   * A file scanned in chunks by several handlers. Every chunk starts at the beginning of a
+   * line, so the columns of its matches are final, and their lines only need to be moved down
+   * by the number of lines of the chunks before. The matches of all chunks are recombined in
+   * file order once the last chunk is done.
+   */
+  class ChunkedFile {
+    private File file;
+    private long[] bounds;
+    private List<List<String>> matches;
+    private int[][] lines;
+    private int[][] columns;
+    private long[] lineCounts;
+    private int remaining;
+
+    /**
+     * Creates a new instance of this class.
+     *
+     * @param file The file.
+     * @param bounds The offsets the chunks start at, followed by the length of the file.
+     */
+    ChunkedFile(File file, long[] bounds) {
+      this.file = file;
+      this.bounds = bounds;
+      remaining = bounds.length - 1;
+      matches = new ArrayList<List<String>>(Collections.<List<String>>nCopies(remaining, null));
+      lines = new int[remaining][];
+      columns = new int[remaining][];
+      lineCounts = new long[remaining];
+    }
+
+    public int getChunkCount() {
+      return bounds.length - 1;
+    }
+
+    /**
+     * Takes the matches of a chunk, and hands on the matches of the whole file once all chunks
+     * are done.
+     *
+     * @param chunk The index of the chunk.
+     * @param chunkMatches The matches found in the chunk.
+     * @param chunkLines The line of each match, counted from the start of the chunk.
+     * @param chunkColumns The column of each match.
+     * @param lineCount The number of lines of the chunk.
+     */
+    synchronized void done(int chunk, List<String> chunkMatches, int[] chunkLines,
+      int[] chunkColumns, long lineCount) {
+      matches.set(chunk, chunkMatches);
+      lines[chunk] = chunkLines;
+      columns[chunk] = chunkColumns;
+      lineCounts[chunk] = lineCount;
+      if (--remaining > 0) return;
+      int total = 0;
+      for (List<String> m : matches) total += m.size();
+      List<String> allMatches = new ArrayList<String>(total);
+      int[] allLines = new int[total];
+      int[] allColumns = new int[total];
+      long offset = 0;
+      for (int c = 0; c < matches.size(); c++) {
+        for (int i = 0; i < matches.get(c).size(); i++) {
+          allLines[allMatches.size()] = (int) (lines[c][i] + offset);
+          allColumns[allMatches.size()] = columns[c][i];
+          allMatches.add(matches.get(c).get(i));
+        }
+        offset += lineCounts[c];
+      }
+      matches = null;
+      lines = null;
+      columns = null;
+      handleMatches(file, allMatches, allLines, allColumns);
+    }
+  } // ChunkedFile
+
   /**
    * Special walker to find all log files in the given directory tree.
    */
-  class SourceDirectoryWalker extends DirectoryWalker {
+  class SourceDirectoryWalker extends DirectoryWalker<File> {
 
     // The list of files found during the walk
-    private TreeMap files = new TreeMap();
+    private TreeMap<String, File> files = new TreeMap<String, File>();
     private Statistics statistics = null;
 
     /**
@@ -261,18 +590,42 @@ public class FindProperties implements Runnable {
      */
     @Override
     protected boolean handleDirectory(File directory, int depth,
-      Collection results) throws IOException {
+      Collection<File> results) throws IOException {
       boolean handle = super.handleDirectory(directory, depth, results);
-      for (String ep : exclude) {
-        PathMatcher pm = FileSystems.getDefault().getPathMatcher("glob:" + ep);
-        if (pm.matches(directory.toPath())) {
-          if (verbose) System.out.println("Excluding path: " + directory);
-          return false;
-        }
+      if (exclusions.isExcluded(directory, true)) {
+        if (verbose) out.println("Excluding path: " + directory);
+        return false;
       }
       return handle;
     }
 
+    @Override
+    protected void handleDirectoryStart(File directory, int depth, Collection<File> results)
+      throws IOException {
+      exclusions.enter(directory);
+    }
+
+    @Override
+    protected void handleDirectoryEnd(File directory, int depth, Collection<File> results)
+      throws IOException {
+      exclusions.leave(directory);
+    }
+
+    /**
+     * Drops the ignored files of a directory before they are handled. Directories are checked
+     * by <code>handleDirectory()</code> instead.
+     */
+    @Override
+    protected File[] filterDirectoryContents(File directory, int depth, File[] files)
+      throws IOException {
+      if (!gitignore || files == null) return files;
+      List<File> kept = new ArrayList<File>(files.length);
+      for (File file : files) {
+        if (file.isDirectory() || !exclusions.isExcluded(file, false)) kept.add(file);
+      }
+      return kept.size() == files.length ? files : kept.toArray(new File[kept.size()]);
+    }
+
     /**
      * Traverses the files and stores them for subsequent processing.
      *
@@ -281,7 +634,7 @@ public class FindProperties implements Runnable {
      * @param results The result list handed in.
      */
     @Override
-    protected void handleFile(File file, int depth, Collection results) throws IOException {
+    protected void handleFile(File file, int depth, Collection<File> results) throws IOException {
       super.handleFile(file, depth, results);
       files.put(file.getAbsolutePath(), file);
     }
@@ -305,17 +658,31 @@ public class FindProperties implements Runnable {
       statistics.numFilesFound = n;
       // create thread pool with requested number of threads
       pool = Executors.newFixedThreadPool(numThreads);
-      for (Iterator it = files.keySet().iterator(); it.hasNext(); )
-        pool.execute(new FileHandler((File) files.get(it.next()), n--, results, statistics));
+      if (numShards > 0) {
+        ShardCoordinator coordinator = new ShardCoordinator(numShards,
+          ShardCoordinator.Partitioning.valueOf(partition.toUpperCase()),
+          shardDir != null ? new File(shardDir) : null, shardLauncher, getWorkerOptions(), verbose);
+        try {
+          mergeShards(coordinator.run(files.values(), getWorkerArgs()));
+        } finally {
+          coordinator.close();
+        }
+      } else if (javaAware) {
+        JavaConstantResolver resolver = new JavaConstantResolver(numFields, verbose, out);
+        resolver.scan(files.values(), pool);
+        javaKeys = resolver.resolve(pool);
+      } else {
+        scanFiles(files.values());
+      }
       pool.shutdown();
       pool.awaitTermination(1, TimeUnit.DAYS);
       statistics.endTime = System.currentTimeMillis();
       statistics.elapsedTime = statistics.endTime - statistics.startTime;
       if (verbose) {
-        System.out.println();
-        System.out.println("Processing time: " + (statistics.elapsedTime / 1000));
-        System.out.println("Processing ended: " + df.format(new Date(statistics.endTime)));
-        System.out.println();
+        out.println();
+        out.println("Processing time: " + (statistics.elapsedTime / 1000));
+        out.println("Processing ended: " + df.format(new Date(statistics.endTime)));
+        out.println();
       }
     }
   } // SourceDirectoryWalker
@@ -327,22 +694,195 @@ public class FindProperties implements Runnable {
   } // constructor
 
   /**
-   * Creates a new LineIterator instance while handling compresses files
-   * internally.
+   * Creates a new LineIterator instance over the given reader.
    *
-   * @param file The current file to get the iterator for.
+   * @param in The reader of the current file to get the iterator for.
    * @return The iterator.
    * @throws IOException When there is a problem with the file.
-   * @throws FileNotFoundException When the file suddenly is gone missing.
    */
-  private static LineIterator getLineIterator(File file) throws IOException {
-    InputStream in = new FileInputStream(file);
-    Reader reader = new InputStreamReader(in);
-    reader = new BufferedReader(reader, 64 * 1024); // 64k blocks
+  private static LineIterator getLineIterator(Reader in) throws IOException {
+    Reader reader = new BufferedReader(in, 64 * 1024); // 64k blocks
     LineIterator it = IOUtils.lineIterator(reader);
     return it;
   }
 
+  /**
+   * Creates a new, unbuffered reader for the given file.
+   *
+   * @param file The current file to get the reader for.
+   * @return The reader.
+   * @throws FileNotFoundException When the file suddenly is gone missing.
+   */
+  private static Reader getReader(File file) throws FileNotFoundException {
+    InputStream in = new FileInputStream(file);
+    return new InputStreamReader(in);
+  }
+
+  /**
+   * Creates a new, unbuffered reader for a range of the given file.
+   *
+   * @param file The current file to get the reader for.
+   * @param start The offset of the first byte to read.
+   * @param end The offset after the last byte to read.
+   * @return The reader.
+   * @throws IOException When the file cannot be opened.
+   */
+  private static Reader getReader(File file, long start, long end) throws IOException {
+    FileInputStream in = new FileInputStream(file);
+    try {
+      in.getChannel().position(start);
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+    return new InputStreamReader(new BoundedInputStream(in, end - start));
+  }
+
+  /**
+   * Splits a file into chunks of about the given size, each ending right after a line end,
+   * so that no line spans two chunks.
+   *
+   * @param file The file to split.
+   * @param chunkSize The minimum size of a chunk.
+   * @return The offsets the chunks start at, followed by the length of the file.
+   * @throws IOException When reading the file fails.
+   */
+  static long[] getChunkBounds(File file, long chunkSize) throws IOException {
+    long length = file.length();
+    List<Long> bounds = new ArrayList<Long>();
+    bounds.add(0L);
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      byte[] buf = new byte[8192];
+      long pos = chunkSize;
+      while (pos < length) {
+        // move on to the next line end
+        raf.seek(pos);
+        long bound = -1;
+        int read;
+        while (bound < 0 && (read = raf.read(buf)) > 0) {
+          for (int i = 0; i < read && bound < 0; i++) if (buf[i] == '\n') bound = pos + i + 1;
+          pos += read;
+        }
+        if (bound < 0 || bound >= length) break;
+        bounds.add(bound);
+        pos = bound + chunkSize;
+      }
+    } finally {
+      raf.close();
+    }
+    long[] result = new long[bounds.size() + 1];
+    for (int i = 0; i < bounds.size(); i++) result[i] = bounds.get(i);
+    result[bounds.size()] = length;
+    return result;
+  }
+
+  /**
+   * Submits the files to the pool, largest first, so that no big file is left to a single
+   * thread at the end of the scan. Files larger than the chunk size are split into chunks,
+   * which are scanned in parallel.
+   *
+   * @param files The files to scan.
+   * @throws IOException When splitting a file fails.
+   */
+  private void scanFiles(Collection<File> files) throws IOException {
+    final List<File> list = new ArrayList<File>(files);
+    final long[] sizes = new long[list.size()];
+    Integer[] order = new Integer[list.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+      sizes[i] = list.get(i).length();
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer i1, Integer i2) {
+        return sizes[i2] < sizes[i1] ? -1 : (sizes[i2] == sizes[i1] ? 0 : 1);
+      }
+    });
+    long chunkSize = chunkSizeMB * 1024L * 1024L;
+    int n = list.size();
+    for (Integer i : order) {
+      // configuration files are parsed as a whole
+      long[] bounds = chunkSize > 0 && sizes[i] > chunkSize && !isConfigCandidate(list.get(i)) ?
+        getChunkBounds(list.get(i), chunkSize) : null;
+      if (bounds != null && bounds.length > 2) {
+        ChunkedFile chunked = new ChunkedFile(list.get(i), bounds);
+        for (int c = 0; c < chunked.getChunkCount(); c++)
+          pool.execute(new FileHandler(chunked, c, n, results, statistics));
+        n--;
+      } else {
+        pool.execute(new FileHandler(list.get(i), n--, results, statistics));
+      }
+    }
+  }
+
+  /**
+   * Counts the matches of a file, and hands them on if there are any.
+   *
+   * @param file The file the matches were found in.
+   * @param matches The matches.
+   * @param lines The line of each match.
+   * @param columns The column of each match.
+   */
+  private void handleMatches(File file, List<String> matches, int[] lines, int[] columns) {
+    synchronized (statistics) {
+      statistics.numMatchesFound = statistics.numMatchesFound + matches.size();
+      if (matches.size() > 0) statistics.numFilesWithMatches++;
+    }
+    if (matches.size() > 0) {
+      try {
+        collectMatches(file, matches, lines, columns);
+      } catch (IOException e) {
+        System.err.println("\nFailed writing results of " + file.getName() + ": " + e);
+      }
+    } else {
+      if (verbose) out.println("No matches found, skipping file: " + file.getName());
+    }
+  }
+
+  /**
+   * Checks whether the file may be a Hadoop style configuration file, which is then parsed
+   * instead of scanned as text, unless it turns out to be some other XML file.
+   */
+  private boolean isConfigCandidate(File file) {
+    return !plainXml && file.getName().endsWith(".xml");
+  }
+
+  /**
+   * Hands on the keys declared by a configuration file: to the shard file in worker mode, and
+   * to the declared keys otherwise.
+   *
+   * @param file The configuration file.
+   * @param keys The keys declared in it.
+   */
+  private void handleDeclared(File file, Collection<String> keys) {
+    synchronized (statistics) {
+      statistics.numConfigFiles++;
+    }
+    if (shardWriter != null) {
+      try {
+        shardWriter.writeDeclared(file, keys);
+      } catch (IOException e) {
+        System.err.println("\nFailed writing results of " + file.getName() + ": " + e);
+      }
+    } else {
+      addDeclared(file, keys);
+    }
+  }
+
+  private void addDeclared(File file, Collection<String> keys) {
+    synchronized (declaredKeys) {
+      for (String key : keys) {
+        SortedSet<String> files = declaredKeys.get(key);
+        if (files == null) {
+          files = new TreeSet<String>();
+          declaredKeys.put(key, files);
+        }
+        files.add(file.getPath());
+      }
+    }
+  }
+
   /**
    * Creates a list of file filters combined with a boolean OR or returns <code>null</code> when
    * there is none (or the user specified the ANY type).
@@ -386,15 +926,143 @@ public class FindProperties implements Runnable {
     return result;
   }
 
+  /**
+   * Checks if the matches of each file are final as soon as the file is processed, so that
+   * they can be written out right away. This is the case unless the results need to be sorted,
+   * made unique, or are needed again after the scan.
+   *
+   * @return <code>true</code> when matches can be streamed to the output.
+   */
+  private boolean isStreaming() {
+    return !sorted && !unique && !printFiles && configName == null && !javaAware &&
+      whereKeys.isEmpty() && keysInFiles.isEmpty() && !approx;
+  }
+
+  /**
+   * Hands on the matches of a file: to the shard file in worker mode, to the sketches in
+   * approximate mode, straight to the output when streaming, and otherwise to the sorter and
+   * occurrence index as needed.
+   *
+   * @param file The file the matches were found in.
+   * @param matches The matches.
+   * @param lines The line of each match.
+   * @param columns The column of each match.
+   * @throws IOException When writing the matches fails.
+   */
+  private void collectMatches(File file, List<String> matches, int[] lines, int[] columns)
+    throws IOException {
+    if (shardWriter != null) {
+      shardWriter.write(file, matches, lines, columns);
+    } else if (approximate != null) {
+      for (String match : matches) approximate.add(stripQuotes(match));
+    } else if (isStreaming()) {
+      synchronized (sink) {
+        for (String match : matches) sink.add(stripQuotes(match), file, 1);
+      }
+    } else {
+      if (sorter != null) {
+        for (String match : matches) sorter.add(stripQuotes(match), file, 1);
+      }
+      if (sorter == null || printFiles || !whereKeys.isEmpty() || !keysInFiles.isEmpty())
+        results.addFile(file, matches, lines, columns);
+    }
+  }
+
+  /**
+   * Returns the arguments of the worker processes, i.e. the options that affect how a single
+   * file is scanned.
+   */
+  private List<String> getWorkerArgs() {
+    List<String> args = new ArrayList<String>(Arrays.asList("-d", directory,
+      "-n", String.valueOf(numFields), "-p", String.valueOf(numThreads),
+      "--chunkSize", String.valueOf(chunkSizeMB)));
+    if (expression != null) {
+      args.add("-e");
+      args.add(expression);
+    }
+    if (plainXml) args.add("--plainXml");
+    if (verbose) args.add("-v");
+    return args;
+  }
+
+  private List<String> getWorkerOptions() {
+    List<String> options = new ArrayList<String>();
+    if (workerOpts != null && workerOpts.trim().length() > 0)
+      options.addAll(Arrays.asList(workerOpts.trim().split("\\s+")));
+    return options;
+  }
+
+  /**
+   * Reads back the shard files of the workers, handing on their matches in shard order.
+   *
+   * @param shards The shard files.
+   * @throws IOException When a shard file is incomplete or cannot be read.
+   */
+  private void mergeShards(List<File> shards) throws IOException {
+    for (File shard : shards) {
+      ShardCoordinator.ShardReader reader = new ShardCoordinator.ShardReader(shard);
+      try {
+        while (reader.next()) {
+          if (reader.isDeclared()) {
+            statistics.numConfigFiles++;
+            addDeclared(reader.getFile(), reader.getMatches());
+            continue;
+          }
+          statistics.numFilesWithMatches++;
+          statistics.numMatchesFound += reader.getMatches().size();
+          collectMatches(reader.getFile(), reader.getMatches(), reader.getLines(),
+            reader.getColumns());
+        }
+      } finally {
+        reader.close();
+      }
+    }
+  }
+
+  /**
+   * Runs as a worker of a sharded scan: scans the listed files and writes the matches to the
+   * shard file, leaving the output to the coordinator.
+   *
+   * @throws Exception When scanning or writing the shard file fails.
+   */
+  private void runShardWorker() throws Exception {
+    List<String> paths = FileUtils.readLines(new File(shardFiles), "UTF-8");
+    configUtils = new ConfigurationUtils();
+    shardWriter = new ShardCoordinator.ShardWriter(new File(shardOutput));
+    try {
+      pool = Executors.newFixedThreadPool(numThreads);
+      List<File> files = new ArrayList<File>(paths.size());
+      for (String path : paths) files.add(new File(path));
+      scanFiles(files);
+      pool.shutdown();
+      pool.awaitTermination(1, TimeUnit.DAYS);
+      shardWriter.finish();
+    } finally {
+      shardWriter.close();
+    }
+  }
+
   /**
    * Based on the found information, compute the final list of found properties.
    */
   private void determineResults() {
-    for (Map.Entry<File, List<String>> entry : results.getMatched().entrySet()) {
-      List<String> matches = entry.getValue();
-      for (String match : matches) {
-        match = stripQuotes(match);
-        if ((unique && !finalProperties.contains(match)) || !unique) finalProperties.add(match);
+    if (sorter != null) return;
+    Map<String, Match> uniqueMatches = new LinkedHashMap<String, Match>();
+    for (int f = 0; f < results.getFileCount(); f++) {
+      File file = results.getFile(f);
+      for (int i = results.getFileStart(f); i < results.getFileEnd(f); i++) {
+        String match = stripQuotes(results.getKey(i));
+        if (unique) {
+          Match m = uniqueMatches.get(match);
+          if (m == null) {
+            m = new Match(match, file, 0);
+            uniqueMatches.put(match, m);
+            finalProperties.add(m);
+          }
+          m.merge(file, 1);
+        } else {
+          finalProperties.add(new Match(match, file, 1));
+        }
       }
     }
     statistics.numUniqueMatchesFound = finalProperties.size();
@@ -402,52 +1070,166 @@ public class FindProperties implements Runnable {
   }
 
   /**
-   * Formats the results for print out.
+   * Returns the final list of found properties, which is streamed from the external sorter
+   * in spill mode.
    *
-   * @return The formatted results.
-   */
-  private String formatResults() {
-    StringBuilder sb = new StringBuilder();
-    if (emitAsXml) {
-      sb.append("<?xml version=\"1.0\"?>\n");
-      sb.append("<?xml-stylesheet type=\"text/xsl\" href=\"configuration.xsl\"?>\n");
-      sb.append("<configuration>\n");
-      for (String prop : finalProperties) {
-        sb.append("  <property >\n");
-        sb.append("    <name>" + prop + "</name>\n");
-        sb.append("    <value></value>\n");
-        sb.append("  </property>\n");
-      }
-      sb.append("</configuration>");
-    } else {
-      for (String prop : finalProperties) sb.append(prop + "\n");
+   * @return The found properties.
+   */
+  private Iterable<Match> getFinalResults() {
+    return sorter != null ? sorter : finalProperties;
+  }
+
+  /**
+   * Returns the distinct keys found by the last run. Not available in spill mode, where the
+   * results are only streamed once.
+   *
+   * @return The set of found keys.
+   */
+  Set<String> getFoundKeys() {
+    Set<String> keys = new HashSet<String>();
+    for (Match match : finalProperties) keys.add(match.getKey());
+    return keys;
+  }
+
+  /**
+   * Based on the resolved keys of the Java aware scan, compute the final list of found
+   * properties, i.e. the keys in sorted order with their first site and number of usages.
+   */
+  private void determineJavaResults() {
+    Set<File> files = new HashSet<File>();
+    for (JavaConstantResolver.KeyReport report : javaKeys.values()) {
+      List<JavaConstantResolver.Site> sites = report.getUsages().isEmpty() ?
+        report.getDefinitions() : report.getUsages();
+      finalProperties.add(new Match(report.getKey(), sites.get(0).getFile(),
+        report.getUsages().size()));
+      for (JavaConstantResolver.Site site : report.getDefinitions()) files.add(site.getFile());
+      for (JavaConstantResolver.Site site : report.getUsages()) files.add(site.getFile());
+      statistics.numMatchesFound += report.getDefinitions().size() + report.getUsages().size();
     }
-    return sb.toString();
+    statistics.numUniqueMatchesFound = finalProperties.size();
+    statistics.numFilesWithMatches = files.size();
+  }
+
+  /**
+   * Output the resolved keys of the Java aware scan with their definition and usage sites.
+   *
+   * @throws IOException When writing the report fails.
+   */
+  private void printJavaReport() throws IOException {
+    if (outputFile == null && verbose) out.println("Results:\n");
+    Writer writer = outputFile != null ?
+      new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile), "UTF-8")) :
+      new BufferedWriter(new OutputStreamWriter(out));
+    for (JavaConstantResolver.KeyReport report : javaKeys.values()) {
+      writer.write(report.getKey());
+      writer.write('\n');
+      for (JavaConstantResolver.Site site : report.getDefinitions())
+        writer.write("  defined at " + site + "\n");
+      for (JavaConstantResolver.Site site : report.getUsages())
+        writer.write("  used at " + site + "\n");
+    }
+    writer.flush();
+    if (outputFile != null) writer.close();
+  }
+
+  /**
+   * Determines the output format, where the <code>--emitAsXml</code> flag is a shortcut for
+   * the XML format.
+   *
+   * @return The output format to use.
+   */
+  private ResultSink.Format getOutputFormat() {
+    if (outputFormat != null) return ResultSink.Format.valueOf(outputFormat.toUpperCase());
+    return emitAsXml ? ResultSink.Format.XML : ResultSink.Format.TEXT;
+  }
+
+  /**
+   * Opens the output where specified, i.e. console or an output file.
+   *
+   * @throws IOException When there is an error creating the output file.
+   */
+  private void openResults() throws IOException {
+    if (outputFile == null && verbose) out.println("Results:\n");
+    sink = ResultSink.create(getOutputFormat(), outputFile, out);
+    sink.begin();
   }
 
   /**
    * Dumps the actual files and what was found in them.
    */
   private void printFilesWithMatches() {
-    for (Map.Entry<File, List<String>> entry : results.getMatched().entrySet()) {
-      List<String> matches = entry.getValue();
-      System.out.println("File: " + entry.getKey().getName() + " -> " + matches.size() + "\n");
-      for (String match : matches) System.out.println("\t" + match + "\n");
+    for (int f = 0; f < results.getFileCount(); f++) {
+      int start = results.getFileStart(f);
+      int end = results.getFileEnd(f);
+      out.println("File: " + results.getFile(f).getName() + " -> " + (end - start) + "\n");
+      for (int i = start; i < end; i++) out.println("\t" + results.getKey(i) + "\n");
+    }
+  }
+
+  /**
+   * Prints the usage sites of the keys given with <code>--where</code>, and the keys used in
+   * the files given with <code>--keysIn</code>, looked up in the occurrence index.
+   */
+  private void printOccurrences() {
+    for (String key : whereKeys) {
+      // the index holds the matches as found, i.e. including the quotes of the default pattern
+      int[] usages = results.getUsages(key);
+      if (usages.length == 0) usages = results.getUsages("\"" + key + "\"");
+      out.println("Usages of " + key + ": " + usages.length);
+      for (int i : usages) {
+        out.println("  " + results.getOccurrenceFile(i).getPath() + ":" + results.getLine(i) +
+          ":" + results.getColumn(i));
+      }
+    }
+    for (String path : keysInFiles) {
+      Set<String> keys = new TreeSet<String>();
+      for (String key : results.getKeysInFile(resolve(path))) keys.add(stripQuotes(key));
+      out.println("Keys in " + path + ": " + keys.size());
+      for (String key : keys) out.println("  " + key);
+    }
+  }
+
+  /**
+   * Resolves a relative path against the scanned directory, falling back to the working
+   * directory when no such file exists there.
+   */
+  private File resolve(String path) {
+    File file = new File(path);
+    if (file.isAbsolute()) return file;
+    File inTree = new File(directory, path);
+    return inTree.isFile() || !file.isFile() ? inTree : file;
+  }
+
+  /**
+   * Prints the keys declared by the configuration files found, with the files declaring them.
+   */
+  private void printDeclaredKeys() {
+    out.println("Declared keys in configuration files: " + declaredKeys.size());
+    for (Map.Entry<String, SortedSet<String>> entry : declaredKeys.entrySet()) {
+      StringBuilder sb = new StringBuilder();
+      for (String path : entry.getValue()) {
+        sb.append(sb.length() > 0 ? ", " : "  ").append(path);
+      }
+      out.println("  " + entry.getKey() + sb);
     }
   }
+
   /**
-   * Output the results where specified, i.e. console or an output file.
+   * Output the final results, unless they were streamed already during the scan.
    *
-   * @throws FileNotFoundException When there is an error creating the output file.
+   * @throws IOException When writing the results fails.
    */
-  private void printResults() throws FileNotFoundException {
-    PrintStream out = outputFile == null ? System.out : new PrintStream(outputFile);
-    if (outputFile == null && verbose) out.println("Results:\n");
-    out.println(formatResults());
-    if (outputFile != null) {
-      out.flush();
-      out.close();
+  private void printResults() throws IOException {
+    if (!isStreaming()) {
+      openResults();
+      int n = 0;
+      for (Match match : getFinalResults()) {
+        sink.add(match.getKey(), match.getFile(), match.getCount());
+        n++;
+      }
+      statistics.numUniqueMatchesFound = n;
     }
+    sink.end();
   }
 
   /**
@@ -459,14 +1241,25 @@ public class FindProperties implements Runnable {
     String fn = configName.startsWith(File.separator) ? configName : dir + configName;
     ConfigurationInfo info = new ConfigurationInfo(fn, "hidden");
     Configuration config = utils.parseConfig(info);
-    System.out.println("\nKeys not found in configuration file:\n");
-    for (String key : finalProperties) {
+    out.println("\nKeys not found in configuration file:\n");
+    for (Match match : getFinalResults()) {
+      String key = match.getKey();
       if (config.getProperty(key) == null) {
-        System.out.println(key);
+        out.println(key);
         statistics.numHiddenProperties++;
       }
     }
-    System.out.println("Total number of hidden properties: " + statistics.numHiddenProperties);
+    out.println("Total number of hidden properties: " + statistics.numHiddenProperties);
+  }
+
+  /**
+   * Sets the stream all output goes to, unless an output file is given. The default is the
+   * console.
+   *
+   * @param out The stream to print to.
+   */
+  public void setOut(PrintStream out) {
+    this.out = out;
   }
 
   /**
@@ -475,19 +1268,68 @@ public class FindProperties implements Runnable {
    * @see java.lang.Runnable#run()
    */
   public void run() {
+    try {
+      execute();
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Runs the search, passing on any error.
+   *
+   * @throws Exception When scanning or writing the results fails.
+   */
+  void execute() throws Exception {
     try {
       IOFileFilter fileFilter = getFileFilters();
+      if (expression != null) pattern = Pattern.compile(expression);
+      if (shardFiles != null) {
+        runShardWorker();
+        return;
+      }
+      if (numShards > 0 && javaAware)
+        throw new IllegalArgumentException("--shards cannot be combined with --java");
+      if (approx) {
+        if (javaAware || printFiles || configName != null || !whereKeys.isEmpty() ||
+          !keysInFiles.isEmpty())
+          throw new IllegalArgumentException("--approx cannot be combined with --java, " +
+            "--printFiles, -c, --where, or --keysIn, which need the exact results");
+        approximate = new ApproximateStatistics(approxPrecision, approxError, topN);
+      }
+      if (sorted && spillThreshold > 0 && !javaAware) {
+        File tmp = tmpDir != null ? new File(tmpDir) : null;
+        sorter = new ExternalSorter(spillThreshold, unique, tmp);
+      }
+      exclusions = new ExclusionEngine(exclude, gitignore);
+      configUtils = new ConfigurationUtils();
       SourceDirectoryWalker dw = new SourceDirectoryWalker(fileFilter, statistics);
+      if (isStreaming()) openResults();
       dw.find(directory);
-      determineResults();
-      if (printFiles) printFilesWithMatches();
-      printResults();
+      if (approximate != null) {
+        approximate.finish();
+        approximate.print(out);
+      } else if (javaAware) {
+        determineJavaResults();
+        printJavaReport();
+      } else {
+        determineResults();
+        if (printFiles) printFilesWithMatches();
+        printResults();
+        if (!whereKeys.isEmpty() || !keysInFiles.isEmpty()) printOccurrences();
+      }
+      if (statistics.numConfigFiles > 0) printDeclaredKeys();
       if (configName != null) printHiddenProperties();
-      System.out.println("Number of files found in total: " + statistics.numFilesFound);
-      System.out.println("Number of matches total: " + statistics.numMatchesFound);
-      System.out.println("Number of files with matches: " + results.getMatched().size());
-    } catch (Exception e) {
-      e.printStackTrace();
+      out.println("Number of files found in total: " + statistics.numFilesFound);
+      out.println("Number of matches total: " + statistics.numMatchesFound);
+      out.println("Number of files with matches: " + statistics.numFilesWithMatches);
+      if (statistics.numConfigFiles > 0)
+        out.println("Number of configuration files: " + statistics.numConfigFiles);
+      if (sorter != null && verbose)
+        out.println("Number of sorted runs spilled: " + sorter.getNumRuns());
+      exclusions.printSummary(out);
+    } finally {
+      if (sorter != null) sorter.close();
     }
   }
 
@@ -512,7 +1354,17 @@ public class FindProperties implements Runnable {
         jc.usage();
         System.exit(-1);
       }
-      fp.run();
+      if (fp.shardFiles != null) {
+        // a worker reports failure through its exit code, for the coordinator to notice
+        try {
+          fp.execute();
+        } catch (Exception e) {
+          e.printStackTrace();
+          System.exit(1);
+        }
+      } else {
+        fp.run();
+      }
     } catch (Exception e) {
       e.printStackTrace();
     }
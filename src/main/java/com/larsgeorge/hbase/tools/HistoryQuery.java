@@ -0,0 +1,158 @@
+package com.larsgeorge.hbase.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+
+/**
+ * Answers questions about configurations recorded in a history store by the differ, such as
+ * when a key was changed and to what, or what changed in a given version.
+ */
+public class HistoryQuery implements Runnable {
+
+  @Parameter(names = { "-h", "--help" }, description = "Print this help", help = true)
+  private boolean printHelp = false;
+  @Parameter(names = { "-s", "--store" }, description = "The directory of the history store",
+    required = true)
+  private String store = null;
+  @Parameter(names = { "-k", "--key" }, description = "Print the history of the given key")
+  private String key = null;
+  @Parameter(names = { "-c", "--changelog" }, description = "Print the changes in the given " +
+    "version")
+  private String changelog = null;
+  @Parameter(names = { "-l", "--list" }, description = "List all recorded versions")
+  private boolean list = false;
+  @Parameter(names = { "-v", "--verbose" }, description = "Print the time taken by each query")
+  private boolean verbose = false;
+
+  @Override
+  public void run() {
+    try {
+      long start = System.currentTimeMillis();
+      HistoryStore hs = new HistoryStore(new File(store));
+      try {
+        if (verbose) System.out.println("Opened " + hs.getSegmentCount() + " segments in " +
+          (System.currentTimeMillis() - start) + " ms.");
+        if (list) printVersions(hs);
+        if (key != null) timed(hs, true);
+        if (changelog != null) timed(hs, false);
+      } finally {
+        hs.close();
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  private void timed(HistoryStore hs, boolean history) throws IOException {
+    long start = System.currentTimeMillis();
+    if (history) printHistory(hs); else printChangelog(hs);
+    if (verbose) System.out.println("Query took " + (System.currentTimeMillis() - start) +
+      " ms.");
+  }
+
+  private void printVersions(HistoryStore hs) {
+    System.out.println("Recorded versions:");
+    for (String version : hs.getVersions()) System.out.println("  " + version);
+    System.out.println();
+  }
+
+  private void printHistory(HistoryStore hs) throws IOException {
+    Map<String, Property> values = new HashMap<String, Property>();
+    for (Property p : hs.getProperties(key)) {
+      // duplicate keys in one version report the first one, same as the differ
+      if (!values.containsKey(p.getSource())) values.put(p.getSource(), p);
+    }
+    System.out.println("History of " + key + ":");
+    Property last = null;
+    for (String version : hs.getVersions()) {
+      Property p = values.get(version);
+      String note = "";
+      if (p != null && last != null && !p.equals(last)) note = "  (changed)";
+      System.out.println(String.format("  %-16s %s%s", version,
+        p != null ? p.getValue() : "<absent>", note));
+      last = p;
+    }
+    List<DiffEvent> events = hs.getEvents(key);
+    if (events.size() > 0) {
+      System.out.println("Differences:");
+      for (DiffEvent event : events) {
+        System.out.println(String.format("  %-16s %-8s %s", event.getVersion(),
+          event.getAction(), describe(event)));
+      }
+    }
+    System.out.println();
+  }
+
+  private void printChangelog(HistoryStore hs) throws IOException {
+    Map<String, List<DiffEvent>> changes = hs.getChangelog(changelog);
+    if (changes.isEmpty()) {
+      System.out.println("No changes recorded for version " + changelog + ".");
+      System.out.println();
+      return;
+    }
+    for (Map.Entry<String, List<DiffEvent>> entry : changes.entrySet()) {
+      System.out.println("Changes in " + changelog + " since " + entry.getKey() + ":");
+      int[] counts = new int[ConfigurationUtils.Action.values().length];
+      for (DiffEvent event : entry.getValue()) {
+        System.out.println(String.format("  %-8s %s", event.getAction(), describe(event)));
+        counts[event.getAction().ordinal()]++;
+      }
+      System.out.println("Summary: " +
+        counts[ConfigurationUtils.Action.Added.ordinal()] + " added, " +
+        counts[ConfigurationUtils.Action.Renamed.ordinal()] + " renamed, " +
+        counts[ConfigurationUtils.Action.Removed.ordinal()] + " removed, and " +
+        counts[ConfigurationUtils.Action.Changed.ordinal()] + " changed properties.");
+      System.out.println();
+    }
+  }
+
+  private static String describe(DiffEvent event) {
+    Property p = event.getProperty();
+    Property p2 = event.getProperty2();
+    switch (event.getAction()) {
+      case Renamed:
+        return p.getKey() + " = " + p.getValue() + " (was " + p2.getKey() + ")";
+      case Removed:
+        return p.getKey();
+      case Changed:
+        if (p.getValue() == null ? p2.getValue() == null : p.getValue().equals(p2.getValue()))
+          return p.getKey() + ": description changed";
+        return p.getKey() + ": " + p2.getValue() + " -> " + p.getValue();
+      default:
+        return p.getKey() + " = " + p.getValue();
+    }
+  }
+
+  /**
+   * Main entry point. Starts the processing.
+   *
+   * @param args The command line arguments.
+   */
+  public static void main(String[] args) {
+    try {
+      HistoryQuery hq = new HistoryQuery();
+      JCommander jc = new JCommander(hq);
+      jc.setProgramName(HistoryQuery.class.getSimpleName());
+      try {
+        jc.parse(args);
+        if (hq.printHelp) {
+          jc.usage();
+          System.exit(0);
+        }
+      } catch (Exception e) {
+        System.err.println(e.getMessage());
+        jc.usage();
+        System.exit(-1);
+      }
+      hq.run();
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+}
@@ -0,0 +1,473 @@
+package com.larsgeorge.hbase.tools;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Keeps parsed configurations and their differences across runs of the differ. Each recorded
+ * run appends a new, immutable segment file holding the properties of all versions not stored
+ * yet, and the added, renamed, removed, and changed properties between consecutive versions.
+ * Next to each segment an index file maps every key to the offsets of its records, and lists
+ * where the records of each version and pair of versions are. Opening the store only reads the
+ * indexes, the records are read on demand.
+ */
+public class HistoryStore implements Closeable {
+
+  private static final int MAGIC = 0x48535431;
+  private static final String SEGMENT_SUFFIX = ".seg";
+  private static final String INDEX_SUFFIX = ".idx";
+  private static final byte PROPERTY_RECORD = 'P';
+  private static final byte EVENT_RECORD = 'E';
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private File dir;
+  private List<Segment> segments = new ArrayList<Segment>();
+  // all versions in the order they were recorded first, used to order the history of a key
+  private Map<String, Integer> versions = new LinkedHashMap<String, Integer>();
+  private Set<String> pairs = new HashSet<String>();
+  private int lastSegment = 0;
+
+  /**
+   * Opens the store in the given directory, creating the directory if needed.
+   *
+   * @param dir The directory holding the segments.
+   * @throws IOException When reading an index fails.
+   */
+  public HistoryStore(File dir) throws IOException {
+    this.dir = dir;
+    if (!dir.isDirectory() && !dir.mkdirs())
+      throw new IOException("Cannot create store directory " + dir);
+    String[] names = dir.list(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.endsWith(INDEX_SUFFIX);
+      }
+    });
+    Arrays.sort(names);
+    for (String name : names) {
+      String base = name.substring(0, name.length() - INDEX_SUFFIX.length());
+      File data = new File(dir, base + SEGMENT_SUFFIX);
+      // a segment without its index was not completely written and is ignored
+      if (!data.exists()) continue;
+      Segment segment = readIndex(new File(dir, name), data);
+      segments.add(segment);
+      for (Range range : segment.versions) addVersion(range.version);
+      for (Range range : segment.pairs) pairs.add(pairKey(range.from, range.version));
+      try {
+        lastSegment = Math.max(lastSegment, Integer.parseInt(base));
+      } catch (NumberFormatException e) {
+        // not one of ours, keep numbering
+      }
+    }
+  }
+
+  /**
+   * Returns all stored versions, in the order they were first recorded.
+   */
+  public List<String> getVersions() {
+    return new ArrayList<String>(versions.keySet());
+  }
+
+  /**
+   * Returns the number of segments in the store.
+   */
+  public int getSegmentCount() {
+    return segments.size();
+  }
+
+  private void addVersion(String version) {
+    if (!versions.containsKey(version)) versions.put(version, versions.size());
+  }
+
+  private static String pairKey(String from, String to) {
+    return from + "\n" + to;
+  }
+
+  /**
+   * Records the given configurations and their differences. Versions, and pairs of versions,
+   * that are stored already are skipped, so that recording the same run twice adds nothing.
+   *
+   * @param configDiff The compared configurations.
+   * @param chunk The differences for all keys.
+   * @return The number of records written.
+   * @throws IOException When writing the segment fails.
+   */
+  public int record(ConfigurationDiff configDiff, DiffChunk chunk) throws IOException {
+    List<Configuration> configs = configDiff.getConfigs();
+    String base = String.format("%06d", lastSegment + 1);
+    File data = new File(dir, base + SEGMENT_SUFFIX);
+    Segment segment = new Segment(data);
+    CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(
+      new FileOutputStream(data), BUFFER_SIZE));
+    DataOutputStream out = new DataOutputStream(counter);
+    int records = 0;
+    try {
+      Set<String> newVersions = new HashSet<String>();
+      Set<String> newPairs = new HashSet<String>();
+      for (int v = 0; v < configs.size(); v++) {
+        String version = configDiff.getVersion(v);
+        if (version == null || versions.containsKey(version) ||
+          !newVersions.add(version)) continue;
+        Range range = new Range(null, version, counter.getByteCount());
+        for (Property p : configs.get(v).getProperties()) {
+          segment.addOffset(p.getKey(), counter.getByteCount());
+          out.writeByte(PROPERTY_RECORD);
+          writeProperty(out, p);
+          range.count++;
+        }
+        segment.versions.add(range);
+        records += range.count;
+      }
+      for (int v = 1; v < configs.size(); v++) {
+        String from = configDiff.getVersion(v - 1);
+        String version = configDiff.getVersion(v);
+        if (from == null || version == null || pairs.contains(pairKey(from, version)) ||
+          !newPairs.add(pairKey(from, version))) continue;
+        Range range = new Range(from, version, counter.getByteCount());
+        List<DiffEvent> events = new ArrayList<DiffEvent>(chunk.getAdded(v));
+        events.addAll(chunk.getRemoved(v));
+        // the changed groups span all versions, store what changed between these two only
+        Configuration conf = configs.get(v);
+        Configuration prevConf = configs.get(v - 1);
+        for (List<DiffEvent> group : chunk.getChanged()) {
+          String key = group.get(0).getProperty().getKey();
+          Property p = conf.getProperty(key);
+          Property p2 = prevConf.getProperty(key);
+          if (p != null && p2 != null && !p.equals(p2))
+            events.add(new DiffEvent(ConfigurationUtils.Action.Changed, p, p2, version));
+        }
+        for (DiffEvent event : events) {
+          long offset = counter.getByteCount();
+          segment.addOffset(event.getProperty().getKey(), offset);
+          // renamed properties also show up in the history of their old key
+          if (event.getAction() == ConfigurationUtils.Action.Renamed &&
+            !event.getProperty2().getKey().equals(event.getProperty().getKey()))
+            segment.addOffset(event.getProperty2().getKey(), offset);
+          out.writeByte(EVENT_RECORD);
+          writeString(out, event.getAction().name());
+          writeString(out, event.getVersion());
+          writeProperty(out, event.getProperty());
+          out.writeBoolean(event.getProperty2() != null);
+          if (event.getProperty2() != null) writeProperty(out, event.getProperty2());
+          range.count++;
+        }
+        segment.pairs.add(range);
+        records += range.count;
+      }
+    } finally {
+      out.close();
+    }
+    if (segment.versions.isEmpty() && segment.pairs.isEmpty()) {
+      data.delete();
+      return 0;
+    }
+    segment.trim();
+    // the index is written last, making the segment visible only once it is complete
+    File tmp = new File(dir, base + INDEX_SUFFIX + ".tmp");
+    writeIndex(tmp, segment);
+    if (!tmp.renameTo(new File(dir, base + INDEX_SUFFIX)))
+      throw new IOException("Cannot commit index of segment " + data);
+    segments.add(segment);
+    lastSegment++;
+    for (Range range : segment.versions) addVersion(range.version);
+    for (Range range : segment.pairs) pairs.add(pairKey(range.from, range.version));
+    return records;
+  }
+
+  /**
+   * Returns the properties with the given key, one per stored version containing it, in
+   * version order.
+   *
+   * @param key The key to look up.
+   * @return The list of properties, their source being the version.
+   * @throws IOException When reading a segment fails.
+   */
+  public List<Property> getProperties(String key) throws IOException {
+    List<Property> properties = new ArrayList<Property>();
+    for (Object record : readKey(key)) {
+      if (record instanceof Property) properties.add((Property) record);
+    }
+    Collections.sort(properties, new Comparator<Property>() {
+      @Override
+      public int compare(Property p1, Property p2) {
+        return versionIndex(p1.getSource()) - versionIndex(p2.getSource());
+      }
+    });
+    return properties;
+  }
+
+  /**
+   * Returns the differences recorded for the given key, in version order.
+   *
+   * @param key The key to look up.
+   * @return The list of differences, including renames from or to the key.
+   * @throws IOException When reading a segment fails.
+   */
+  public List<DiffEvent> getEvents(String key) throws IOException {
+    List<DiffEvent> events = new ArrayList<DiffEvent>();
+    for (Object record : readKey(key)) {
+      if (record instanceof DiffEvent) events.add((DiffEvent) record);
+    }
+    Collections.sort(events, new Comparator<DiffEvent>() {
+      @Override
+      public int compare(DiffEvent e1, DiffEvent e2) {
+        return versionIndex(e1.getVersion()) - versionIndex(e2.getVersion());
+      }
+    });
+    return events;
+  }
+
+  /**
+   * Returns the differences leading to the given version, grouped by the version they were
+   * compared against, which usually is just the previous release.
+   *
+   * @param version The version to return the changes of.
+   * @return The differences per previous version, empty when none are stored.
+   * @throws IOException When reading a segment fails.
+   */
+  public Map<String, List<DiffEvent>> getChangelog(String version) throws IOException {
+    Map<String, List<DiffEvent>> changelog = new LinkedHashMap<String, List<DiffEvent>>();
+    for (Segment segment : segments) {
+      for (Range range : segment.pairs) {
+        if (!range.version.equals(version)) continue;
+        List<DiffEvent> events = new ArrayList<DiffEvent>(range.count);
+        FileInputStream fis = new FileInputStream(segment.data);
+        try {
+          fis.getChannel().position(range.start);
+          DataInputStream in = new DataInputStream(new BufferedInputStream(fis, BUFFER_SIZE));
+          for (int i = 0; i < range.count; i++) events.add((DiffEvent) readRecord(in));
+        } finally {
+          fis.close();
+        }
+        changelog.put(range.from, events);
+      }
+    }
+    return changelog;
+  }
+
+  private int versionIndex(String version) {
+    Integer index = versions.get(version);
+    return index != null ? index : Integer.MAX_VALUE;
+  }
+
+  private List<Object> readKey(String key) throws IOException {
+    List<Object> records = new ArrayList<Object>();
+    for (Segment segment : segments) {
+      long[] offsets = segment.keys.get(key);
+      if (offsets == null) continue;
+      RandomAccessFile file = segment.open();
+      for (long offset : offsets) {
+        file.seek(offset);
+        records.add(readRecord(file));
+      }
+    }
+    return records;
+  }
+
+  /**
+   * Closes all open segments.
+   */
+  @Override
+  public void close() {
+    for (Segment segment : segments) {
+      IOUtils.closeQuietly(segment.file);
+      segment.file = null;
+    }
+  }
+
+  private static Object readRecord(DataInput in) throws IOException {
+    byte kind = in.readByte();
+    if (kind == PROPERTY_RECORD) return readProperty(in);
+    if (kind != EVENT_RECORD) throw new IOException("Unknown record type " + kind);
+    ConfigurationUtils.Action action = ConfigurationUtils.Action.valueOf(readString(in));
+    String version = readString(in);
+    Property property = readProperty(in);
+    Property property2 = in.readBoolean() ? readProperty(in) : null;
+    return new DiffEvent(action, property, property2, version);
+  }
+
+  private static void writeProperty(DataOutput out, Property p) throws IOException {
+    writeString(out, p.getKey());
+    writeString(out, p.getValue());
+    writeString(out, p.getDescription());
+    writeString(out, p.getType());
+    writeString(out, p.getUnit());
+    writeString(out, p.getSource());
+    writeString(out, p.getResource());
+    out.writeBoolean(p.isFinalParameter());
+  }
+
+  private static Property readProperty(DataInput in) throws IOException {
+    String key = readString(in);
+    String value = readString(in);
+    String description = readString(in);
+    String type = readString(in);
+    String unit = readString(in);
+    Property p = new Property(key, value, type, unit, description, readString(in));
+    p.setResource(readString(in));
+    p.setFinalParameter(in.readBoolean());
+    return p;
+  }
+
+  // unlike writeUTF() this has no length limit, descriptions can be long
+  private static void writeString(DataOutput out, String s) throws IOException {
+    if (s == null) {
+      out.writeInt(-1);
+    } else {
+      byte[] bytes = s.getBytes("UTF-8");
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static String readString(DataInput in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) return null;
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, "UTF-8");
+  }
+
+  private static void writeIndex(File file, Segment segment) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+      new FileOutputStream(file), BUFFER_SIZE));
+    try {
+      out.writeInt(MAGIC);
+      writeRanges(out, segment.versions);
+      writeRanges(out, segment.pairs);
+      out.writeInt(segment.keys.size());
+      for (Map.Entry<String, long[]> entry : segment.keys.entrySet()) {
+        writeString(out, entry.getKey());
+        out.writeInt(entry.getValue().length);
+        for (long offset : entry.getValue()) out.writeLong(offset);
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  private static void writeRanges(DataOutput out, List<Range> ranges) throws IOException {
+    out.writeInt(ranges.size());
+    for (Range range : ranges) {
+      writeString(out, range.from);
+      writeString(out, range.version);
+      out.writeLong(range.start);
+      out.writeInt(range.count);
+    }
+  }
+
+  private static Segment readIndex(File file, File data) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+      new FileInputStream(file), BUFFER_SIZE));
+    try {
+      if (in.readInt() != MAGIC) throw new IOException("Not a store index: " + file);
+      Segment segment = new Segment(data);
+      readRanges(in, segment.versions);
+      readRanges(in, segment.pairs);
+      int numKeys = in.readInt();
+      for (int k = 0; k < numKeys; k++) {
+        String key = readString(in);
+        long[] offsets = new long[in.readInt()];
+        for (int i = 0; i < offsets.length; i++) offsets[i] = in.readLong();
+        segment.keys.put(key, offsets);
+      }
+      return segment;
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void readRanges(DataInput in, List<Range> ranges) throws IOException {
+    int size = in.readInt();
+    for (int i = 0; i < size; i++) {
+      Range range = new Range(readString(in), readString(in), in.readLong());
+      range.count = in.readInt();
+      ranges.add(range);
+    }
+  }
+
+  /**
+   * The records of a single version, or of the differences between two versions.
+   */
+  private static class Range {
+    private String from;
+    private String version;
+    private long start;
+    private int count = 0;
+
+    Range(String from, String version, long start) {
+      this.from = from;
+      this.version = version;
+      this.start = start;
+    }
+  }
+
+  /**
+   * A segment file and its index.
+   */
+  private static class Segment {
+    private File data;
+    private RandomAccessFile file = null;
+    private List<Range> versions = new ArrayList<Range>();
+    private List<Range> pairs = new ArrayList<Range>();
+    private TreeMap<String, long[]> keys = new TreeMap<String, long[]>();
+    // only used while writing, the number of offsets used per key
+    private Map<String, Integer> counts = new HashMap<String, Integer>();
+
+    Segment(File data) {
+      this.data = data;
+    }
+
+    void addOffset(String key, long offset) {
+      long[] offsets = keys.get(key);
+      Integer count = counts.get(key);
+      int n = count != null ? count : 0;
+      if (offsets == null) {
+        offsets = new long[2];
+        keys.put(key, offsets);
+      } else if (n == offsets.length) {
+        offsets = Arrays.copyOf(offsets, n * 2);
+        keys.put(key, offsets);
+      }
+      offsets[n] = offset;
+      counts.put(key, n + 1);
+    }
+
+    void trim() {
+      for (Map.Entry<String, long[]> entry : keys.entrySet()) {
+        entry.setValue(Arrays.copyOf(entry.getValue(), counts.get(entry.getKey())));
+      }
+      counts.clear();
+    }
+
+    RandomAccessFile open() throws IOException {
+      if (file == null) file = new RandomAccessFile(data, "r");
+      return file;
+    }
+  }
+}
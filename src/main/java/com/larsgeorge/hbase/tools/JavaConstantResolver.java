@@ -0,0 +1,599 @@
+package com.larsgeorge.hbase.tools;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Finds configuration keys in Java sources by tokenizing them, which skips comments and folds
+ * the concatenation of string literals and constants. All files are scanned in parallel, which
+ * builds a global table of the <code>static final String</code> constants and keeps the
+ * expressions that may refer to keys. A second pass resolves those expressions against the
+ * table and reports each key with the sites that define it and the sites that use it, be it
+ * as a literal or through a constant.
+ */
+class JavaConstantResolver {
+
+  private static final int UNRESOLVED = 0;
+  private static final int RESOLVING = 1;
+  private static final int RESOLVED = 2;
+
+  private int minSegments;
+  private boolean verbose;
+  private PrintStream out;
+  private Map<String, List<Constant>> constants = new ConcurrentHashMap<String, List<Constant>>();
+  private List<FileScan> scans = Collections.synchronizedList(new ArrayList<FileScan>());
+
+  /**
+   * A literal or a reference to a constant, as part of a string expression.
+   */
+  static class Part {
+    private String literal;
+    private String qualifier;
+    private String name;
+
+    Part(String literal, String qualifier, String name) {
+      this.literal = literal;
+      this.qualifier = qualifier;
+      this.name = name;
+    }
+  }
+
+  /**
+   * A string expression, consisting of parts that are concatenated.
+   */
+  static class Expression {
+    private List<Part> parts = new ArrayList<Part>(2);
+    private int line;
+    private int column;
+    private boolean incomplete = false;
+
+    Expression(int line, int column) {
+      this.line = line;
+      this.column = column;
+    }
+
+    boolean hasLiteral() {
+      for (Part part : parts) if (part.literal != null) return true;
+      return false;
+    }
+  }
+
+  /**
+   * A <code>static final String</code> constant.
+   */
+  static class Constant {
+    private String owner;
+    private String name;
+    private File file;
+    private int line;
+    private int column;
+    private List<Part> parts = null;
+    private int state = UNRESOLVED;
+    private String value = null;
+
+    Constant(String owner, String name, File file, int line, int column) {
+      this.owner = owner;
+      this.name = name;
+      this.file = file;
+      this.line = line;
+      this.column = column;
+    }
+
+    public String getQualifiedName() {
+      return owner + "." + name;
+    }
+  }
+
+  /**
+   * The expressions of a single file that may refer to keys.
+   */
+  static class FileScan {
+    private File file;
+    private List<Expression> expressions = new ArrayList<Expression>();
+
+    FileScan(File file) {
+      this.file = file;
+    }
+  }
+
+  /**
+   * A location where a key is defined or used.
+   */
+  static class Site {
+    private File file;
+    private int line;
+    private int column;
+    private String constant;
+
+    Site(File file, int line, int column, String constant) {
+      this.file = file;
+      this.line = line;
+      this.column = column;
+      this.constant = constant;
+    }
+
+    public File getFile() {
+      return file;
+    }
+
+    public int getLine() {
+      return line;
+    }
+
+    public int getColumn() {
+      return column;
+    }
+
+    /**
+     * Returns the name(s) of the constant(s) used to build the key at this site, or
+     * <code>null</code> when it is a plain literal.
+     */
+    public String getConstant() {
+      return constant;
+    }
+
+    @Override
+    public String toString() {
+      return file.getPath() + ":" + line + ":" + column +
+        (constant != null ? " (" + constant + ")" : "");
+    }
+  }
+
+  /**
+   * The definition and usage sites of a single key.
+   */
+  static class KeyReport {
+    private String key;
+    private List<Site> definitions = new ArrayList<Site>(1);
+    private List<Site> usages = new ArrayList<Site>();
+
+    KeyReport(String key) {
+      this.key = key;
+    }
+
+    public String getKey() {
+      return key;
+    }
+
+    public List<Site> getDefinitions() {
+      return definitions;
+    }
+
+    public List<Site> getUsages() {
+      return usages;
+    }
+  }
+
+  /**
+   * Creates a new instance of this class.
+   *
+   * @param minSegments The minimum number of dot separated segments of a key.
+   * @param verbose Whether to print progress information.
+   * @param out The stream to print progress information to.
+   */
+  JavaConstantResolver(int minSegments, boolean verbose, PrintStream out) {
+    this.minSegments = minSegments;
+    this.verbose = verbose;
+    this.out = out;
+  }
+
+  /**
+   * Scans the given files in parallel, building the table of constants.
+   *
+   * @param files The files to scan, anything that is not a Java source file is skipped.
+   * @param pool The pool to run the scans on.
+   * @throws InterruptedException When waiting for the scans is interrupted.
+   */
+  public void scan(Collection<File> files, ExecutorService pool) throws InterruptedException {
+    List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+    for (final File file : files) {
+      if (!file.getName().endsWith(".java")) continue;
+      tasks.add(new Callable<Object>() {
+        @Override
+        public Object call() {
+          try {
+            scanFile(file);
+          } catch (IOException e) {
+            System.err.println("\nFailed processing " + file.getName() + ": " + e + "\n");
+          }
+          return null;
+        }
+      });
+    }
+    pool.invokeAll(tasks);
+    if (verbose) out.println("Found " + constants.size() + " distinct constant names.");
+  }
+
+  /**
+   * Resolves all constants and expressions found, mapping each key to its sites.
+   *
+   * @param pool The pool to resolve the expressions of the files on.
+   * @return The sorted map of keys to their definition and usage sites.
+   * @throws InterruptedException When waiting for the resolution is interrupted.
+   */
+  public SortedMap<String, KeyReport> resolve(ExecutorService pool)
+    throws InterruptedException {
+    SortedMap<String, KeyReport> keys = new TreeMap<String, KeyReport>();
+    // constants refer to each other, resolve them all upfront so that the table is read-only
+    for (List<Constant> candidates : constants.values()) {
+      for (Constant constant : candidates) {
+        String value = resolve(constant);
+        if (value != null && PropertyLiteralMatcher.isProperty(value, minSegments)) {
+          getReport(keys, value).definitions.add(new Site(constant.file, constant.line,
+            constant.column, constant.getQualifiedName()));
+        }
+      }
+    }
+    List<Callable<List<Object[]>>> tasks = new ArrayList<Callable<List<Object[]>>>();
+    for (final FileScan scan : scans) {
+      tasks.add(new Callable<List<Object[]>>() {
+        @Override
+        public List<Object[]> call() {
+          return resolve(scan);
+        }
+      });
+    }
+    try {
+      for (Future<List<Object[]>> future : pool.invokeAll(tasks)) {
+        for (Object[] usage : future.get())
+          getReport(keys, (String) usage[0]).usages.add((Site) usage[1]);
+      }
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Resolving expressions failed", e.getCause());
+    }
+    for (KeyReport report : keys.values()) {
+      Collections.sort(report.definitions, SITE_ORDER);
+      Collections.sort(report.usages, SITE_ORDER);
+    }
+    return keys;
+  }
+
+  private static KeyReport getReport(SortedMap<String, KeyReport> keys, String key) {
+    KeyReport report = keys.get(key);
+    if (report == null) {
+      report = new KeyReport(key);
+      keys.put(key, report);
+    }
+    return report;
+  }
+
+  private static final Comparator<Site> SITE_ORDER = new Comparator<Site>() {
+    @Override
+    public int compare(Site s1, Site s2) {
+      int res = s1.file.getPath().compareTo(s2.file.getPath());
+      if (res == 0) res = s1.line - s2.line;
+      if (res == 0) res = s1.column - s2.column;
+      return res;
+    }
+  };
+
+  /**
+   * Resolves the expressions of a single file.
+   *
+   * @return A list of key and site pairs.
+   */
+  private List<Object[]> resolve(FileScan scan) {
+    List<Object[]> usages = new ArrayList<Object[]>();
+    StringBuilder names = new StringBuilder();
+    for (Expression expression : scan.expressions) {
+      names.setLength(0);
+      String value = fold(expression.parts, scan.file, names);
+      if (value != null && PropertyLiteralMatcher.isProperty(value, minSegments)) {
+        usages.add(new Object[] { value, new Site(scan.file, expression.line, expression.column,
+          names.length() > 0 ? names.toString() : null) });
+      }
+    }
+    return usages;
+  }
+
+  /**
+   * Resolves the value of a constant, following references to other constants.
+   *
+   * @return The value, or <code>null</code> when it cannot be resolved.
+   */
+  private String resolve(Constant constant) {
+    if (constant.state == RESOLVED) return constant.value;
+    if (constant.state == RESOLVING) return null; // cyclic reference
+    constant.state = RESOLVING;
+    constant.value = constant.parts != null ? fold(constant.parts, constant.file, null) : null;
+    constant.state = RESOLVED;
+    return constant.value;
+  }
+
+  /**
+   * Concatenates the given parts, resolving the constants they refer to.
+   *
+   * @param parts The parts of the expression.
+   * @param file The file containing the expression.
+   * @param names Collects the names of the constants used, optional.
+   * @return The value, or <code>null</code> when it cannot be resolved.
+   */
+  private String fold(List<Part> parts, File file, StringBuilder names) {
+    if (parts.size() == 1 && parts.get(0).literal != null) return parts.get(0).literal;
+    StringBuilder sb = new StringBuilder();
+    for (Part part : parts) {
+      if (part.literal != null) {
+        sb.append(part.literal);
+      } else {
+        Constant constant = lookup(part, file);
+        if (constant == null) return null;
+        sb.append(constant.value);
+        if (names != null) {
+          if (names.length() > 0) names.append(", ");
+          names.append(constant.getQualifiedName());
+        }
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Finds the constant a reference points to. Unqualified names prefer constants from the
+   * same file, otherwise all candidates need to agree on the value.
+   *
+   * @return The resolved constant, or <code>null</code> when unknown or ambiguous.
+   */
+  private Constant lookup(Part ref, File file) {
+    List<Constant> candidates = constants.get(ref.name);
+    if (candidates == null) return null;
+    Constant found = null;
+    boolean local = false;
+    for (Constant candidate : candidates) {
+      if (ref.qualifier != null && !ref.qualifier.equals(candidate.owner)) continue;
+      if (resolve(candidate) == null) continue;
+      boolean same = ref.qualifier == null && candidate.file.equals(file);
+      if (found == null || (same && !local)) {
+        found = candidate;
+        local = same;
+      } else if (same == local && !found.value.equals(candidate.value)) {
+        return null;
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Tokenizes a single file, collecting its constants and expressions.
+   */
+  private void scanFile(File file) throws IOException {
+    Reader reader = new InputStreamReader(new FileInputStream(file));
+    char[] buf;
+    try {
+      buf = IOUtils.toCharArray(reader);
+    } finally {
+      IOUtils.closeQuietly(reader);
+    }
+    String name = file.getName();
+    new SourceScanner(file, name.substring(0, name.length() - ".java".length()))
+      .scan(new JavaTokenizer(buf, buf.length));
+  }
+
+  /**
+   * The parsing state while scanning the tokens of a single file.
+   */
+  private class SourceScanner {
+    private FileScan scan;
+    private String fileOwner;
+    private Deque<Object[]> classes = new ArrayDeque<Object[]>();
+    private int depth = 0;
+    private String pendingClass = null;
+    private boolean pendingInterface = false;
+    private boolean sawStatic = false;
+    private boolean sawFinal = false;
+    private boolean inConstant = false;
+    private String previous = null;
+    private Constant pendingConstant = null;
+    private Expression expression = null;
+    private boolean plus = false;
+    private boolean leftIncomplete = false;
+
+    SourceScanner(File file, String fileOwner) {
+      this.scan = new FileScan(file);
+      this.fileOwner = fileOwner;
+    }
+
+    void scan(JavaTokenizer t) {
+      JavaTokenizer.Type type = t.next();
+      while (type != JavaTokenizer.Type.EOF) {
+        if (type == JavaTokenizer.Type.IDENTIFIER) {
+          type = handleName(t);
+          continue;
+        }
+        if (type == JavaTokenizer.Type.STRING) {
+          addOperand(new Part(t.getText(), null, null), t.getLine(), t.getColumn());
+        } else if (t.is("+")) {
+          if (expression != null && !plus) {
+            plus = true;
+          } else {
+            endExpression();
+            leftIncomplete = true;
+          }
+        } else {
+          endOperands();
+          if (t.is(";")) {
+            resetModifiers();
+          } else if (t.is("{")) {
+            depth++;
+            if (pendingClass != null) {
+              classes.push(new Object[] { pendingClass, pendingInterface, depth });
+              pendingClass = null;
+            }
+            resetModifiers();
+          } else if (t.is("}")) {
+            if (!classes.isEmpty() && (Integer) classes.peek()[2] == depth) classes.pop();
+            depth--;
+            resetModifiers();
+          }
+        }
+        previous = type == JavaTokenizer.Type.STRING ? null : t.getText();
+        type = t.next();
+      }
+      endOperands();
+      if (!scan.expressions.isEmpty()) scans.add(scan);
+    }
+
+    /**
+     * Handles a (qualified) name and returns the type of the token following it.
+     */
+    private JavaTokenizer.Type handleName(JavaTokenizer t) {
+      String first = t.getText();
+      int line = t.getLine();
+      int column = t.getColumn();
+      boolean afterDot = ".".equals(previous);
+      if (!afterDot && ("import".equals(first) || "package".equals(first))) {
+        JavaTokenizer.Type type = t.next();
+        while (type != JavaTokenizer.Type.EOF && !t.is(";")) type = t.next();
+        endOperands();
+        return type;
+      }
+      if (!afterDot && ("class".equals(first) || "interface".equals(first) ||
+        "enum".equals(first))) {
+        endOperands();
+        JavaTokenizer.Type type = t.next();
+        if (type == JavaTokenizer.Type.IDENTIFIER) {
+          pendingClass = t.getText();
+          pendingInterface = "interface".equals(first);
+          previous = pendingClass;
+          return t.next();
+        }
+        previous = first;
+        return type;
+      }
+      if ("static".equals(first)) sawStatic = true;
+      if ("final".equals(first)) sawFinal = true;
+      String qualifier = null;
+      String name = first;
+      JavaTokenizer.Type type = t.next();
+      while (t.is(".")) {
+        type = t.next();
+        if (type != JavaTokenizer.Type.IDENTIFIER) break;
+        qualifier = "this".equals(name) ? null : name;
+        name = t.getText();
+        type = t.next();
+      }
+      if (t.is("(")) {
+        // a method call, not an operand
+        endOperands();
+      } else if (t.is("=") && qualifier == null && isConstantDeclaration()) {
+        endOperands();
+        inConstant = true;
+        pendingConstant = new Constant(getOwner(), name, scan.file, line, column);
+        previous = "=";
+        return t.next();
+      } else if (expression != null && plus || isConstantName(name)) {
+        addOperand(new Part(null, qualifier, name), line, column);
+      } else {
+        endOperands();
+      }
+      previous = name;
+      return type;
+    }
+
+    private boolean isConstantDeclaration() {
+      if (inConstant && ",".equals(previous)) return true;
+      if (!"String".equals(previous)) return false;
+      if (sawStatic && sawFinal) return true;
+      // fields of interfaces are implicitly static and final
+      Object[] scope = classes.peek();
+      return scope != null && (Boolean) scope[1] && (Integer) scope[2] == depth;
+    }
+
+    private String getOwner() {
+      return classes.isEmpty() ? fileOwner : (String) classes.peek()[0];
+    }
+
+    private void resetModifiers() {
+      sawStatic = false;
+      sawFinal = false;
+      inConstant = false;
+    }
+
+    private void addOperand(Part part, int line, int column) {
+      if (expression != null && plus) {
+        expression.parts.add(part);
+        plus = false;
+      } else {
+        endExpression();
+        expression = new Expression(line, column);
+        expression.incomplete = leftIncomplete;
+        expression.parts.add(part);
+      }
+      leftIncomplete = false;
+    }
+
+    /**
+     * Called for any token that cannot be part of a string expression.
+     */
+    private void endOperands() {
+      if (plus && expression != null) expression.incomplete = true;
+      if (expression == null && pendingConstant != null) {
+        // the initializer is something we cannot fold
+        pendingConstant = null;
+      }
+      endExpression();
+      leftIncomplete = false;
+    }
+
+    private void endExpression() {
+      if (expression == null) return;
+      if (pendingConstant != null) {
+        if (!expression.incomplete) {
+          pendingConstant.parts = expression.parts;
+          addConstant(pendingConstant);
+        }
+        pendingConstant = null;
+      } else if (!expression.incomplete &&
+        (expression.hasLiteral() || expression.parts.size() > 1 ||
+          isConstantName(expression.parts.get(0).name))) {
+        scan.expressions.add(expression);
+      }
+      expression = null;
+      plus = false;
+    }
+
+    private void addConstant(Constant constant) {
+      synchronized (constants) {
+        List<Constant> candidates = constants.get(constant.name);
+        if (candidates == null) {
+          candidates = new ArrayList<Constant>(1);
+          constants.put(constant.name, candidates);
+        }
+        candidates.add(constant);
+      }
+    }
+  }
+
+  /**
+   * Checks if the name follows the naming convention of constants, i.e. is all uppercase.
+   */
+  private static boolean isConstantName(String name) {
+    boolean letter = false;
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (Character.isLowerCase(c)) return false;
+      if (Character.isLetter(c)) letter = true;
+    }
+    return letter;
+  }
+}
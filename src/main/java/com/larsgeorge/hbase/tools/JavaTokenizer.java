@@ -0,0 +1,208 @@
+package com.larsgeorge.hbase.tools;
+
+/**
+ * Splits Java source code into tokens, skipping whitespace and comments. String literals are
+ * returned with their escapes resolved, all other tokens with their raw text. This is a
+ * lexical scanner only, just enough to reliably tell literals, names, and operators apart.
+ */
+class JavaTokenizer {
+
+  /** The token types. */
+  enum Type { IDENTIFIER, STRING, CHAR, NUMBER, OPERATOR, EOF }
+
+  private char[] buf;
+  private int pos = 0;
+  private int limit;
+  private int line = 1;
+  private int lineStart = 0;
+  private Type type = null;
+  private String text = null;
+  private int tokenLine = 0;
+  private int tokenColumn = 0;
+  private StringBuilder sb = new StringBuilder();
+
+  /**
+   * Creates a new instance of this class.
+   *
+   * @param buf The buffer holding the source code.
+   * @param len The number of characters in the buffer.
+   */
+  JavaTokenizer(char[] buf, int len) {
+    this.buf = buf;
+    this.limit = len;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public String getText() {
+    return text;
+  }
+
+  /**
+   * Returns the line number of the current token, starting at one.
+   */
+  public int getLine() {
+    return tokenLine;
+  }
+
+  /**
+   * Returns the column of the current token, starting at one.
+   */
+  public int getColumn() {
+    return tokenColumn;
+  }
+
+  /**
+   * Checks if the current token is the given operator or keyword.
+   *
+   * @param s The text to compare against.
+   * @return <code>true</code> when the current token matches.
+   */
+  public boolean is(String s) {
+    return type != Type.STRING && type != Type.CHAR && s.equals(text);
+  }
+
+  /**
+   * Advances to the next token.
+   *
+   * @return The type of the new current token.
+   */
+  public Type next() {
+    skipWhitespaceAndComments();
+    tokenLine = line;
+    tokenColumn = pos - lineStart + 1;
+    if (pos >= limit) {
+      type = Type.EOF;
+      text = null;
+      return type;
+    }
+    char c = buf[pos];
+    if (Character.isJavaIdentifierStart(c)) {
+      int start = pos;
+      while (pos < limit && Character.isJavaIdentifierPart(buf[pos])) pos++;
+      type = Type.IDENTIFIER;
+      text = new String(buf, start, pos - start);
+    } else if (c == '"') {
+      if (pos + 2 < limit && buf[pos + 1] == '"' && buf[pos + 2] == '"') {
+        readTextBlock();
+      } else {
+        readQuoted('"');
+      }
+      type = Type.STRING;
+    } else if (c == '\'') {
+      readQuoted('\'');
+      type = Type.CHAR;
+    } else if (Character.isDigit(c) ||
+      (c == '.' && pos + 1 < limit && Character.isDigit(buf[pos + 1]))) {
+      int start = pos;
+      while (pos < limit && (Character.isLetterOrDigit(buf[pos]) || buf[pos] == '.' ||
+        buf[pos] == '_')) pos++;
+      type = Type.NUMBER;
+      text = new String(buf, start, pos - start);
+    } else {
+      int start = pos++;
+      if (pos < limit) {
+        char d = buf[pos];
+        // keep the compound operators that would otherwise be mistaken for '=' or '+'
+        if ((d == '=' && "=!<>+-*/%&|^".indexOf(c) >= 0) || (d == c && "+-&|".indexOf(c) >= 0))
+          pos++;
+      }
+      type = Type.OPERATOR;
+      text = new String(buf, start, pos - start);
+    }
+    return type;
+  }
+
+  private void skipWhitespaceAndComments() {
+    while (pos < limit) {
+      char c = buf[pos];
+      if (c == '\n') {
+        pos++;
+        newLine();
+      } else if (Character.isWhitespace(c)) {
+        pos++;
+      } else if (c == '/' && pos + 1 < limit && buf[pos + 1] == '/') {
+        while (pos < limit && buf[pos] != '\n') pos++;
+      } else if (c == '/' && pos + 1 < limit && buf[pos + 1] == '*') {
+        pos += 2;
+        while (pos < limit && !(buf[pos] == '*' && pos + 1 < limit && buf[pos + 1] == '/')) {
+          if (buf[pos] == '\n') {
+            pos++;
+            newLine();
+          } else {
+            pos++;
+          }
+        }
+        pos = Math.min(pos + 2, limit);
+      } else {
+        return;
+      }
+    }
+  }
+
+  private void newLine() {
+    line++;
+    lineStart = pos;
+  }
+
+  private void readQuoted(char quote) {
+    sb.setLength(0);
+    pos++;
+    while (pos < limit && buf[pos] != quote && buf[pos] != '\n') {
+      char c = buf[pos++];
+      if (c == '\\' && pos < limit) {
+        c = buf[pos++];
+        switch (c) {
+          case 'n': sb.append('\n'); break;
+          case 't': sb.append('\t'); break;
+          case 'r': sb.append('\r'); break;
+          case 'b': sb.append('\b'); break;
+          case 'f': sb.append('\f'); break;
+          case 'u':
+            while (pos < limit && buf[pos] == 'u') pos++;
+            if (pos + 4 <= limit) {
+              try {
+                sb.append((char) Integer.parseInt(new String(buf, pos, 4), 16));
+              } catch (NumberFormatException e) {
+                // leave malformed escapes out
+              }
+              pos += 4;
+            }
+            break;
+          default:
+            if (c >= '0' && c <= '7') {
+              int code = c - '0';
+              while (pos < limit && buf[pos] >= '0' && buf[pos] <= '7' && code < 32)
+                code = code * 8 + (buf[pos++] - '0');
+              sb.append((char) code);
+            } else {
+              sb.append(c);
+            }
+        }
+      } else {
+        sb.append(c);
+      }
+    }
+    if (pos < limit && buf[pos] == quote) pos++;
+    text = sb.toString();
+  }
+
+  private void readTextBlock() {
+    int start = pos + 3;
+    pos = start;
+    while (pos < limit && !(buf[pos] == '"' && pos + 2 < limit && buf[pos + 1] == '"' &&
+      buf[pos + 2] == '"')) {
+      if (buf[pos] == '\\') pos++;
+      if (pos < limit && buf[pos] == '\n') {
+        pos++;
+        newLine();
+      } else {
+        pos++;
+      }
+    }
+    text = new String(buf, start, Math.min(pos, limit) - start);
+    pos = Math.min(pos + 3, limit);
+  }
+}
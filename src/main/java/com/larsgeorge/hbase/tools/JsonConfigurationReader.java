@@ -0,0 +1,278 @@
+package com.larsgeorge.hbase.tools;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/**
+ * Reads the JSON dumps created by Hadoop's <code>Configuration.dumpConfiguration()</code>,
+ * for example as returned by the <code>/conf?format=json</code> servlet. The dump looks like
+ * <pre>
+ *   {"properties":[{"key":"fs.defaultFS","value":"hdfs://nn:8020","isFinal":false,
+ *     "resource":"core-site.xml"}, ...]}
+ * </pre>
+ * The document is pulled token by token, so only the current entry is held in memory.
+ */
+class JsonConfigurationReader implements ConfigurationReader {
+  private static final Log LOG = LogFactory.getLog(JsonConfigurationReader.class);
+
+  @Override
+  public Configuration read(ConfigurationInfo info, ConfigurationUtils utils)
+    throws IOException {
+    Configuration conf = new Configuration();
+    Reader reader = new BufferedReader(new InputStreamReader(
+      info.openStream(), "UTF-8"), 64 * 1024);
+    try {
+      JsonTokenizer json = new JsonTokenizer(reader);
+      json.expect(JsonTokenizer.Token.BEGIN_OBJECT);
+      while (json.nextField()) {
+        String name = json.getText();
+        if ("properties".equals(name)) {
+          json.expect(JsonTokenizer.Token.BEGIN_ARRAY);
+          while (json.nextElement(JsonTokenizer.Token.END_ARRAY)) {
+            readProperty(json, conf, info, utils);
+          }
+        } else if ("property".equals(name)) {
+          // single property dumps wrap the entry into its own field
+          json.next();
+          readProperty(json, conf, info, utils);
+        } else {
+          json.skipValue();
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return conf;
+  }
+
+  /**
+   * Reads a single dump entry, the current token must be the opening brace.
+   */
+  private void readProperty(JsonTokenizer json, Configuration conf, ConfigurationInfo info,
+    ConfigurationUtils utils) throws IOException {
+    json.check(JsonTokenizer.Token.BEGIN_OBJECT);
+    String key = null;
+    String value = null;
+    String resource = null;
+    boolean finalParameter = false;
+    while (json.nextField()) {
+      String name = json.getText();
+      if ("key".equals(name)) {
+        key = json.nextValue();
+      } else if ("value".equals(name)) {
+        value = json.nextValue();
+      } else if ("resource".equals(name)) {
+        resource = json.nextValue();
+      } else if ("isFinal".equals(name)) {
+        finalParameter = "true".equals(json.nextValue());
+      } else {
+        json.skipValue();
+      }
+    }
+    if (key != null) {
+      conf.addProperty(utils.createProperty(key.trim(), value, null, finalParameter,
+        resource, info));
+    } else {
+      LOG.error("WARNING: Key was null!");
+    }
+  }
+
+  /**
+   * Minimal pull tokenizer for JSON documents.
+   */
+  static class JsonTokenizer {
+
+    enum Token { BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, COLON, COMMA, STRING,
+      LITERAL, EOF }
+
+    private Reader reader;
+    private int peeked = -2;
+    private Token token = null;
+    private StringBuilder text = new StringBuilder();
+    private long position = 0;
+
+    JsonTokenizer(Reader reader) {
+      this.reader = reader;
+    }
+
+    public Token getToken() {
+      return token;
+    }
+
+    /**
+     * Returns the text of the current string or literal token.
+     */
+    public String getText() {
+      return text.toString();
+    }
+
+    private int read() throws IOException {
+      int c;
+      if (peeked != -2) {
+        c = peeked;
+        peeked = -2;
+      } else {
+        c = reader.read();
+      }
+      position++;
+      return c;
+    }
+
+    private int peek() throws IOException {
+      if (peeked == -2) peeked = reader.read();
+      return peeked;
+    }
+
+    /**
+     * Advances to the next token.
+     *
+     * @return The new current token.
+     * @throws IOException When reading fails or the document is malformed.
+     */
+    public Token next() throws IOException {
+      int c = read();
+      while (c == ' ' || c == '\t' || c == '\n' || c == '\r') c = read();
+      text.setLength(0);
+      switch (c) {
+        case -1: token = Token.EOF; break;
+        case '{': token = Token.BEGIN_OBJECT; break;
+        case '}': token = Token.END_OBJECT; break;
+        case '[': token = Token.BEGIN_ARRAY; break;
+        case ']': token = Token.END_ARRAY; break;
+        case ':': token = Token.COLON; break;
+        case ',': token = Token.COMMA; break;
+        case '"': readString(); token = Token.STRING; break;
+        default:
+          // numbers, true, false, and null
+          text.append((char) c);
+          int p = peek();
+          while (p != -1 && p != ',' && p != '}' && p != ']' && p != ':' &&
+            !Character.isWhitespace(p)) {
+            text.append((char) read());
+            p = peek();
+          }
+          token = Token.LITERAL;
+      }
+      return token;
+    }
+
+    private void readString() throws IOException {
+      int c = read();
+      while (c != '"') {
+        if (c == -1) throw error("unterminated string");
+        if (c == '\\') {
+          c = read();
+          switch (c) {
+            case 'b': text.append('\b'); break;
+            case 'f': text.append('\f'); break;
+            case 'n': text.append('\n'); break;
+            case 'r': text.append('\r'); break;
+            case 't': text.append('\t'); break;
+            case 'u':
+              int code = 0;
+              for (int i = 0; i < 4; i++) {
+                int digit = Character.digit(read(), 16);
+                if (digit < 0) throw error("bad unicode escape");
+                code = (code << 4) + digit;
+              }
+              text.append((char) code);
+              break;
+            case -1: throw error("unterminated string");
+            default: text.append((char) c);
+          }
+        } else {
+          text.append((char) c);
+        }
+        c = read();
+      }
+    }
+
+    /**
+     * Verifies that the current token is the expected one.
+     */
+    public void check(Token expected) throws IOException {
+      if (token != expected) throw error("expected " + expected + " but found " + token);
+    }
+
+    /**
+     * Advances and verifies that the new token is the expected one.
+     */
+    public void expect(Token expected) throws IOException {
+      next();
+      check(expected);
+    }
+
+    /**
+     * Moves to the name of the next field of the current object.
+     *
+     * @return <code>true</code> when positioned on a field name, <code>false</code> when the
+     *   end of the object was reached.
+     */
+    public boolean nextField() throws IOException {
+      if (!nextElement(Token.END_OBJECT)) return false;
+      check(Token.STRING);
+      String name = getText();
+      expect(Token.COLON);
+      text.setLength(0);
+      text.append(name);
+      return true;
+    }
+
+    /**
+     * Moves to the first token of the next element of the current object or array.
+     *
+     * @param end The token closing the current container.
+     * @return <code>true</code> when positioned on an element, <code>false</code> at the end.
+     */
+    public boolean nextElement(Token end) throws IOException {
+      next();
+      if (token == Token.COMMA) next();
+      if (token == end) return false;
+      if (token == Token.EOF) throw error("unexpected end of document");
+      return true;
+    }
+
+    /**
+     * Reads the next scalar value.
+     *
+     * @return The text of the value, or <code>null</code> for JSON null or a nested structure.
+     */
+    public String nextValue() throws IOException {
+      next();
+      if (token == Token.STRING) return getText();
+      if (token == Token.LITERAL) return "null".equals(getText()) ? null : getText();
+      skipCurrent();
+      return null;
+    }
+
+    /**
+     * Skips the next value, including all nested structures.
+     */
+    public void skipValue() throws IOException {
+      next();
+      skipCurrent();
+    }
+
+    private void skipCurrent() throws IOException {
+      if (token != Token.BEGIN_OBJECT && token != Token.BEGIN_ARRAY) return;
+      int depth = 1;
+      while (depth > 0) {
+        switch (next()) {
+          case BEGIN_OBJECT: case BEGIN_ARRAY: depth++; break;
+          case END_OBJECT: case END_ARRAY: depth--; break;
+          case EOF: throw error("unexpected end of document");
+          default: break;
+        }
+      }
+    }
+
+    private IOException error(String message) {
+      return new IOException("Malformed JSON at character " + position + ": " + message);
+    }
+  }
+}
@@ -0,0 +1,183 @@
+package com.larsgeorge.hbase.tools;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Represents the key space as a trie of the dot separated segments of the keys, where each node
+ * stands for a namespace, e.g. <code>hbase</code> or <code>hbase.regionserver</code>, and the
+ * keys in it. The trie is used in two ways: marked with include and exclude rules it filters
+ * keys by namespace, the deepest rule on the path of a key deciding, and filled with the
+ * differences of a diff it sums them up per namespace.
+ */
+class KeyTrie {
+
+  /** The kinds of differences counted per namespace. */
+  enum Count { ADDED, REMOVED, CHANGED }
+
+  /**
+   * A single namespace.
+   */
+  static class Node {
+    private String name;
+    private TreeMap<String, Node> children = new TreeMap<String, Node>();
+    private int[] counts = new int[Count.values().length];
+    // the filter rule set for this namespace, or null if none
+    private Boolean include = null;
+
+    Node(String name) {
+      this.name = name;
+    }
+
+    Node getChild(String segment, boolean create) {
+      Node child = children.get(segment);
+      if (child == null && create) {
+        child = new Node(name.length() == 0 ? segment : name + "." + segment);
+        children.put(segment, child);
+      }
+      return child;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public int getCount(Count count) {
+      return counts[count.ordinal()];
+    }
+  }
+
+  private Node root = new Node("");
+
+  /**
+   * Creates a trie filtering keys by namespace. A key is accepted when the deepest namespace
+   * with a rule, on the path from the top level segment to the key itself, is included. Keys
+   * without any rule on their path are accepted, unless there are include rules.
+   *
+   * @param includes The namespaces to include, e.g. <code>hbase.regionserver</code>.
+   * @param excludes The namespaces to exclude, taking precedence over the same includes.
+   * @return The filter, or <code>null</code> when there are no rules at all.
+   */
+  static KeyTrie createFilter(List<String> includes, List<String> excludes) {
+    if (includes.isEmpty() && excludes.isEmpty()) return null;
+    KeyTrie filter = new KeyTrie();
+    filter.root.include = includes.isEmpty();
+    for (String prefix : includes) filter.getNode(normalize(prefix), true).include = true;
+    for (String prefix : excludes) filter.getNode(normalize(prefix), true).include = false;
+    return filter;
+  }
+
+  // a trailing dot, as in "dfs.namenode.", names the same namespace
+  private static String normalize(String prefix) {
+    return prefix.endsWith(".") ? prefix.substring(0, prefix.length() - 1) : prefix;
+  }
+
+  /**
+   * Walks down the segments of the given key.
+   *
+   * @param key The key or namespace.
+   * @param create Whether to create missing nodes.
+   * @return The node of the key, or <code>null</code> if missing and not created.
+   */
+  private Node getNode(String key, boolean create) {
+    Node node = root;
+    int start = 0;
+    while (node != null && start <= key.length()) {
+      int end = key.indexOf('.', start);
+      if (end < 0) end = key.length();
+      node = node.getChild(key.substring(start, end), create);
+      start = end + 1;
+    }
+    return node;
+  }
+
+  /**
+   * Checks whether the given key passes the filter. The walk stops at the first namespace
+   * without children, since nothing below it can decide differently.
+   *
+   * @param key The key to check.
+   * @return <code>true</code> when the key is accepted.
+   */
+  public boolean accept(String key) {
+    Node node = root;
+    boolean include = root.include;
+    int start = 0;
+    while (start <= key.length() && !node.children.isEmpty()) {
+      int end = key.indexOf('.', start);
+      if (end < 0) end = key.length();
+      node = node.children.get(key.substring(start, end));
+      if (node == null) break;
+      if (node.include != null) include = node.include;
+      start = end + 1;
+    }
+    return include;
+  }
+
+  /**
+   * Counts a difference for the given key and all namespaces it is in.
+   *
+   * @param key The key.
+   * @param count The kind of difference.
+   */
+  public void add(String key, Count count) {
+    Node node = root;
+    node.counts[count.ordinal()]++;
+    int start = 0;
+    while (start <= key.length()) {
+      int end = key.indexOf('.', start);
+      if (end < 0) end = key.length();
+      node = node.getChild(key.substring(start, end), true);
+      node.counts[count.ordinal()]++;
+      start = end + 1;
+    }
+  }
+
+  /**
+   * Counts the differences of a diff: the added or renamed and the removed keys of each
+   * version, and every key with different properties once.
+   *
+   * @param chunk The differences.
+   */
+  public void addAll(DiffChunk chunk) {
+    for (int v = 0; v < chunk.getVersionCount(); v++) {
+      for (DiffEvent event : chunk.getAdded(v)) add(event.getProperty().getKey(), Count.ADDED);
+      for (DiffEvent event : chunk.getRemoved(v))
+        add(event.getProperty().getKey(), Count.REMOVED);
+    }
+    for (List<DiffEvent> group : chunk.getChanged())
+      add(group.get(0).getProperty().getKey(), Count.CHANGED);
+  }
+
+  /**
+   * Returns the node of the given namespace, or <code>null</code> when it has no differences.
+   */
+  public Node getNamespace(String namespace) {
+    return namespace.length() == 0 ? root : getNode(normalize(namespace), false);
+  }
+
+  /**
+   * Prints the counts of all namespaces down to the given depth, indented by depth and in
+   * the order of the segments.
+   *
+   * @param out The stream to print to.
+   * @param prefix The prefix of every line.
+   * @param depth The number of segments to descend.
+   */
+  public void printSummary(PrintStream out, String prefix, int depth) {
+    out.println(prefix + String.format("%-50s %8s %8s %8s", "Namespace", "Added", "Removed",
+      "Changed"));
+    print(out, prefix, root, 0, depth);
+  }
+
+  private void print(PrintStream out, String prefix, Node node, int level, int depth) {
+    StringBuilder indent = new StringBuilder();
+    for (int i = 0; i < level; i++) indent.append("  ");
+    String name = level == 0 ? "(all)" : node.name;
+    out.println(prefix + String.format("%-50s %8d %8d %8d", indent + name,
+      node.getCount(Count.ADDED), node.getCount(Count.REMOVED), node.getCount(Count.CHANGED)));
+    if (level < depth) {
+      for (Node child : node.children.values()) print(out, prefix, child, level + 1, depth);
+    }
+  }
+}
@@ -0,0 +1,178 @@
+package com.larsgeorge.hbase.tools;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Records every occurrence of a property as a key id, file id, line, and column, kept in
+ * parallel arrays of primitive integers. The keys and file paths are stored once each, in
+ * dictionaries mapping them to their ids. The occurrences of a file are added all at once, so
+ * they are contiguous and in file order, and the files are kept in the order they were added.
+ * <p/>
+ * Lookups by key use an inverted index, built on first use after occurrences were added.
+ */
+class OccurrenceIndex {
+
+  private Map<String, Integer> keyIds = new HashMap<String, Integer>();
+  private List<String> keys = new ArrayList<String>();
+  private Map<String, Integer> fileIds = new HashMap<String, Integer>();
+  private List<File> files = new ArrayList<File>();
+  // the range of occurrences per file, the end being the start of the next file
+  private int[] fileStarts = new int[16];
+  private int[] keyId = new int[1024];
+  private int[] fileId = new int[1024];
+  private int[] line = new int[1024];
+  private int[] column = new int[1024];
+  private int size = 0;
+  // the inverted index: the occurrences of key k are byKey[keyStarts[k]] to byKey[keyStarts[k+1]]
+  private int[] keyStarts = null;
+  private int[] byKey = null;
+
+  /**
+   * Adds the occurrences found in a file.
+   *
+   * @param file The file the occurrences are in.
+   * @param matches The matched keys.
+   * @param lines The line of each match, starting at 1.
+   * @param columns The column of each match, starting at 1.
+   */
+  public synchronized void addFile(File file, List<String> matches, int[] lines, int[] columns) {
+    int fid = files.size();
+    files.add(file);
+    fileIds.put(file.getAbsolutePath(), fid);
+    if (fid + 1 >= fileStarts.length)
+      fileStarts = Arrays.copyOf(fileStarts, fileStarts.length * 2);
+    fileStarts[fid] = size;
+    ensureCapacity(size + matches.size());
+    for (int i = 0; i < matches.size(); i++) {
+      keyId[size] = getKeyId(matches.get(i));
+      fileId[size] = fid;
+      line[size] = lines[i];
+      column[size] = columns[i];
+      size++;
+    }
+    fileStarts[fid + 1] = size;
+    keyStarts = null;
+    byKey = null;
+  }
+
+  private int getKeyId(String key) {
+    Integer id = keyIds.get(key);
+    if (id == null) {
+      id = keys.size();
+      keyIds.put(key, id);
+      keys.add(key);
+    }
+    return id;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity <= keyId.length) return;
+    int n = Math.max(capacity, keyId.length * 2);
+    keyId = Arrays.copyOf(keyId, n);
+    fileId = Arrays.copyOf(fileId, n);
+    line = Arrays.copyOf(line, n);
+    column = Arrays.copyOf(column, n);
+  }
+
+  /**
+   * Returns the total number of occurrences.
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Returns the number of distinct keys.
+   */
+  public synchronized int getKeyCount() {
+    return keys.size();
+  }
+
+  /**
+   * Returns the number of files with occurrences.
+   */
+  public synchronized int getFileCount() {
+    return files.size();
+  }
+
+  public synchronized File getFile(int fileId) {
+    return files.get(fileId);
+  }
+
+  /**
+   * Returns the first occurrence of the given file.
+   */
+  public synchronized int getFileStart(int fileId) {
+    return fileStarts[fileId];
+  }
+
+  /**
+   * Returns the occurrence after the last one of the given file.
+   */
+  public synchronized int getFileEnd(int fileId) {
+    return fileStarts[fileId + 1];
+  }
+
+  public synchronized String getKey(int occurrence) {
+    return keys.get(keyId[occurrence]);
+  }
+
+  public synchronized File getOccurrenceFile(int occurrence) {
+    return files.get(fileId[occurrence]);
+  }
+
+  public synchronized int getLine(int occurrence) {
+    return line[occurrence];
+  }
+
+  public synchronized int getColumn(int occurrence) {
+    return column[occurrence];
+  }
+
+  /**
+   * Returns all occurrences of the given key, in the order of the files and the positions in
+   * each file.
+   *
+   * @param key The key to look up.
+   * @return The occurrences, empty if the key was not found.
+   */
+  public synchronized int[] getUsages(String key) {
+    Integer id = keyIds.get(key);
+    if (id == null) return new int[0];
+    if (byKey == null) buildInvertedIndex();
+    return Arrays.copyOfRange(byKey, keyStarts[id], keyStarts[id + 1]);
+  }
+
+  /**
+   * Returns the distinct keys used in the given file.
+   *
+   * @param file The file to look up.
+   * @return The sorted keys, empty when the file has no matches.
+   */
+  public synchronized SortedSet<String> getKeysInFile(File file) {
+    SortedSet<String> result = new TreeSet<String>();
+    Integer fid = fileIds.get(file.getAbsolutePath());
+    if (fid == null) return result;
+    for (int i = fileStarts[fid]; i < fileStarts[fid + 1]; i++) result.add(keys.get(keyId[i]));
+    return result;
+  }
+
+  /**
+   * Groups the occurrences by key with a counting sort, keeping their order within each key.
+   */
+  private void buildInvertedIndex() {
+    keyStarts = new int[keys.size() + 1];
+    for (int i = 0; i < size; i++) keyStarts[keyId[i] + 1]++;
+    for (int k = 0; k < keys.size(); k++) keyStarts[k + 1] += keyStarts[k];
+    int[] next = Arrays.copyOf(keyStarts, keys.size());
+    byKey = new int[size];
+    for (int i = 0; i < size; i++) byKey[next[keyId[i]]++] = i;
+  }
+}
@@ -6,7 +6,7 @@ import org.apache.commons.lang.time.DurationFormatUtils;
 /**
  * Holds the details of a configuration property.
  */
-class Property implements Comparable {
+public class Property implements Comparable {
   public static final String NULL = "NULL";
 
   private String key;
@@ -16,6 +16,8 @@ class Property implements Comparable {
   private String unit;
   private String description;
   private String source;
+  private String resource;
+  private boolean finalParameter = false;
   private boolean ignoreDescription = false;
 
   Property(String key, String value, String description, String source) {
@@ -112,6 +114,22 @@ class Property implements Comparable {
     this.source = source;
   }
 
+  public String getResource() {
+    return resource;
+  }
+
+  public void setResource(String resource) {
+    this.resource = resource;
+  }
+
+  public boolean isFinalParameter() {
+    return finalParameter;
+  }
+
+  public void setFinalParameter(boolean finalParameter) {
+    this.finalParameter = finalParameter;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -0,0 +1,135 @@
+package com.larsgeorge.hbase.tools;
+
+/**
+ * Finds quoted property literals, such as <code>"hbase.foo.bar"</code>, in a character buffer.
+ * It matches the same text as the default expression used by {@link FindProperties}, that is,
+ * <code>"(\p{Alpha}\w+\.){n-1,}(\p{Alpha}\w+)"</code>, but does so in a single pass over the
+ * buffer without any backtracking or allocations. Like a regular <code>Matcher</code>, an
+ * instance is reset with new input and then asked to <code>find()</code> the next match.
+ */
+class PropertyLiteralMatcher {
+
+  private int minSegments;
+  private char[] buf = null;
+  private int pos = 0;
+  private int limit = 0;
+  private int start = -1;
+  private int end = -1;
+
+  /**
+   * Creates a new instance of this class.
+   *
+   * @param minSegments The minimum number of dot separated segments of a property.
+   */
+  PropertyLiteralMatcher(int minSegments) {
+    this.minSegments = Math.max(minSegments, 1);
+  }
+
+  /**
+   * Sets new input to scan.
+   *
+   * @param buf The buffer holding the characters.
+   * @param off The offset of the first character to scan.
+   * @param len The number of characters to scan.
+   * @return This instance.
+   */
+  public PropertyLiteralMatcher reset(char[] buf, int off, int len) {
+    this.buf = buf;
+    this.pos = off;
+    this.limit = off + len;
+    this.start = -1;
+    this.end = -1;
+    return this;
+  }
+
+  /**
+   * Finds the next property literal in the input.
+   *
+   * @return <code>true</code> when a match was found.
+   */
+  public boolean find() {
+    int i = pos;
+    while (i < limit) {
+      if (buf[i] != '"') {
+        i++;
+        continue;
+      }
+      int j = i + 1;
+      int segments = 0;
+      while (true) {
+        // each segment is a letter, followed by at least one word character
+        if (j >= limit || !isAlpha(buf[j])) break;
+        if (++j >= limit || !isWord(buf[j])) break;
+        j++;
+        while (j < limit && isWord(buf[j])) j++;
+        segments++;
+        if (j >= limit) break;
+        char c = buf[j];
+        if (c == '.') {
+          j++;
+        } else if (c == '"' && segments >= minSegments) {
+          start = i;
+          end = j + 1;
+          pos = end;
+          return true;
+        } else {
+          break;
+        }
+      }
+      // everything up to the failing character is a word character or dot, which means the
+      // next possible opening quote is at that position
+      i = Math.max(j, i + 1);
+    }
+    pos = limit;
+    start = -1;
+    end = -1;
+    return false;
+  }
+
+  /**
+   * Returns the offset of the opening quote of the current match.
+   */
+  public int start() {
+    return start;
+  }
+
+  /**
+   * Returns the offset after the closing quote of the current match.
+   */
+  public int end() {
+    return end;
+  }
+
+  /**
+   * Returns the current match, including the quotes.
+   */
+  public String group() {
+    return new String(buf, start, end - start);
+  }
+
+  /**
+   * Checks if the given text, without quotes, is a property as a whole.
+   *
+   * @param text The text to check.
+   * @param minSegments The minimum number of dot separated segments of a property.
+   * @return <code>true</code> when the text is a property.
+   */
+  public static boolean isProperty(String text, int minSegments) {
+    int len = text.length();
+    char[] buf = new char[len + 2];
+    buf[0] = '"';
+    text.getChars(0, len, buf, 1);
+    buf[len + 1] = '"';
+    PropertyLiteralMatcher matcher = new PropertyLiteralMatcher(minSegments);
+    matcher.reset(buf, 0, len + 2);
+    return matcher.find() && matcher.start() == 0 && matcher.end() == len + 2;
+  }
+
+  private static boolean isAlpha(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  private static boolean isWord(char c) {
+    return isAlpha(c) || (c >= '0' && c <= '9') || c == '_';
+  }
+}
@@ -0,0 +1,167 @@
+package com.larsgeorge.hbase.tools;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds known renames of keys, mapping each new key to the old keys it replaces. The mappings
+ * come from mapping files, or from the deprecation tables Hadoop keeps for all keys registered
+ * with <code>Configuration.addDeprecation()</code>. A renamed key is then found by a direct
+ * lookup, instead of guessing from the descriptions.
+ */
+class RenameTable {
+  private static final Log LOG = LogFactory.getLog(RenameTable.class);
+
+  /** The classes registering further deprecations when loaded, if on the class path. */
+  private static final String[] HADOOP_CLASSES = {
+    "org.apache.hadoop.conf.Configuration",
+    "org.apache.hadoop.hdfs.HdfsConfiguration",
+    "org.apache.hadoop.mapred.JobConf",
+    "org.apache.hadoop.yarn.conf.YarnConfiguration",
+    "org.apache.hadoop.hbase.HBaseConfiguration"
+  };
+
+  /** The deprecations read from Hadoop, by old key, shared by all instances. */
+  private static Map<String, String[]> hadoopDeprecations = null;
+
+  private Map<String, List<String>> oldKeys = new HashMap<String, List<String>>();
+  private int size = 0;
+
+  /**
+   * Adds a single rename.
+   *
+   * @param oldKey The old key.
+   * @param newKey The key replacing it.
+   */
+  public void add(String oldKey, String newKey) {
+    List<String> keys = oldKeys.get(newKey);
+    if (keys == null) {
+      keys = new ArrayList<String>(1);
+      oldKeys.put(newKey, keys);
+    }
+    if (!keys.contains(oldKey)) {
+      keys.add(oldKey);
+      size++;
+    }
+  }
+
+  /**
+   * Loads a mapping file in properties format, mapping each old key to the new key, or a
+   * comma separated list of new keys, e.g. <code>fs.default.name=fs.defaultFS</code>.
+   *
+   * @param file The mapping file.
+   * @throws IOException When reading the file fails.
+   */
+  public void load(File file) throws IOException {
+    Properties props = new Properties();
+    InputStream in = new BufferedInputStream(new FileInputStream(file));
+    try {
+      props.load(in);
+    } finally {
+      in.close();
+    }
+    for (String oldKey : props.stringPropertyNames()) {
+      for (String newKey : props.getProperty(oldKey).split(",")) {
+        if (newKey.trim().length() > 0) add(oldKey, newKey.trim());
+      }
+    }
+  }
+
+  /**
+   * Adds the deprecations registered with Hadoop's configuration class, after loading the
+   * classes of the Hadoop and HBase projects found on the class path, which register their
+   * own deprecations.
+   *
+   * @throws IOException When the deprecation tables cannot be read.
+   */
+  public void loadHadoop() throws IOException {
+    for (Map.Entry<String, String[]> entry : getHadoopDeprecations().entrySet()) {
+      for (String newKey : entry.getValue()) add(entry.getKey(), newKey);
+    }
+  }
+
+  private static synchronized Map<String, String[]> getHadoopDeprecations() throws IOException {
+    if (hadoopDeprecations != null) return hadoopDeprecations;
+    for (String name : HADOOP_CLASSES) {
+      try {
+        Class.forName(name, true, RenameTable.class.getClassLoader());
+      } catch (ClassNotFoundException e) {
+        // not on the class path, which is expected for most of them
+      } catch (LinkageError e) {
+        LOG.warn("Failed loading " + name + ", skipping its deprecations: " + e);
+      }
+    }
+    // the tables are not public, so they are read reflectively
+    try {
+      Class<?> conf = Class.forName("org.apache.hadoop.conf.Configuration");
+      Field contextField = conf.getDeclaredField("deprecationContext");
+      contextField.setAccessible(true);
+      Object context = ((AtomicReference<?>) contextField.get(null)).get();
+      Method getMap = context.getClass().getDeclaredMethod("getDeprecatedKeyMap");
+      getMap.setAccessible(true);
+      Map<?, ?> map = (Map<?, ?>) getMap.invoke(context);
+      Map<String, String[]> deprecations = new HashMap<String, String[]>(map.size() * 2);
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        Field newKeys = entry.getValue().getClass().getDeclaredField("newKeys");
+        newKeys.setAccessible(true);
+        deprecations.put((String) entry.getKey(), (String[]) newKeys.get(entry.getValue()));
+      }
+      hadoopDeprecations = Collections.unmodifiableMap(deprecations);
+      return hadoopDeprecations;
+    } catch (Exception e) {
+      throw new IOException("Failed reading the Hadoop deprecation tables", e);
+    }
+  }
+
+  /**
+   * Returns the number of renames.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the old keys replaced by the given key.
+   *
+   * @param newKey The new key.
+   * @return The old keys, empty when there are none.
+   */
+  public List<String> getOldKeys(String newKey) {
+    List<String> keys = oldKeys.get(newKey);
+    return keys != null ? keys : Collections.<String>emptyList();
+  }
+
+  /**
+   * Finds the property a newly added key was renamed from, i.e. the property of an old key
+   * that is in the previous configuration, but no longer in the current one.
+   *
+   * @param newKey The key added in the current configuration.
+   * @param prevConf The previous configuration.
+   * @param conf The current configuration.
+   * @return The old property, or <code>null</code> when the key was not renamed.
+   */
+  public Property findOldProperty(String newKey, Configuration prevConf, Configuration conf) {
+    for (String oldKey : getOldKeys(newKey)) {
+      if (!conf.containsKey(oldKey)) {
+        Property p = prevConf.getProperty(oldKey);
+        if (p != null) return p;
+      }
+    }
+    return null;
+  }
+}
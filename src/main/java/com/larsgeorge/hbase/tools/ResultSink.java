@@ -0,0 +1,206 @@
+package com.larsgeorge.hbase.tools;
+
+import org.apache.commons.lang.StringEscapeUtils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.channels.Channels;
+
+/**
+ * Writes found properties incrementally in one of the supported output formats. Each record
+ * is written through a buffered writer as soon as it is added, so nothing accumulates in
+ * memory besides the buffer itself.
+ */
+abstract class ResultSink {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /** The supported output formats. */
+  enum Format { TEXT, XML, JSONL, CSV }
+
+  protected Writer writer;
+  private boolean console;
+
+  ResultSink(Writer writer, boolean console) {
+    this.writer = writer;
+    this.console = console;
+  }
+
+  /**
+   * Creates a new sink writing to the given file, or the console when the name is
+   * <code>null</code>.
+   *
+   * @param format The output format to use.
+   * @param outputFile The name of the output file, or <code>null</code>.
+   * @param console The stream to use when no output file is given.
+   * @return The new sink.
+   * @throws IOException When the output file cannot be created.
+   */
+  public static ResultSink create(Format format, String outputFile, PrintStream console)
+    throws IOException {
+    Writer writer;
+    if (outputFile != null) {
+      FileOutputStream out = new FileOutputStream(new File(outputFile));
+      writer = new BufferedWriter(Channels.newWriter(out.getChannel(), "UTF-8"), BUFFER_SIZE);
+    } else {
+      writer = new BufferedWriter(new OutputStreamWriter(console), BUFFER_SIZE);
+    }
+    switch (format) {
+      case XML: return new XmlSink(writer, outputFile == null);
+      case JSONL: return new JsonLinesSink(writer, outputFile == null);
+      case CSV: return new CsvSink(writer, outputFile == null);
+      default: return new TextSink(writer, outputFile == null);
+    }
+  }
+
+  /**
+   * Emits the header of the output, if the format needs one.
+   *
+   * @throws IOException When writing fails.
+   */
+  public void begin() throws IOException {
+  }
+
+  /**
+   * Emits a single found property.
+   *
+   * @param key The property key.
+   * @param file The file the property was found in.
+   * @param count The number of occurrences this record stands for.
+   * @throws IOException When writing fails.
+   */
+  public abstract void add(String key, File file, int count) throws IOException;
+
+  /**
+   * Emits the footer of the output, if the format needs one, and flushes or closes the
+   * underlying writer. The console is only flushed, never closed.
+   *
+   * @throws IOException When writing fails.
+   */
+  public void end() throws IOException {
+    writer.flush();
+    if (!console) writer.close();
+  }
+
+  /**
+   * Plain text, one property per line.
+   */
+  static class TextSink extends ResultSink {
+
+    TextSink(Writer writer, boolean console) {
+      super(writer, console);
+    }
+
+    @Override
+    public void add(String key, File file, int count) throws IOException {
+      writer.write(key);
+      writer.write('\n');
+    }
+
+    @Override
+    public void end() throws IOException {
+      writer.write('\n');
+      super.end();
+    }
+  }
+
+  /**
+   * A Hadoop XML configuration with all found properties and empty values.
+   */
+  static class XmlSink extends ResultSink {
+
+    XmlSink(Writer writer, boolean console) {
+      super(writer, console);
+    }
+
+    @Override
+    public void begin() throws IOException {
+      writer.write("<?xml version=\"1.0\"?>\n");
+      writer.write("<?xml-stylesheet type=\"text/xsl\" href=\"configuration.xsl\"?>\n");
+      writer.write("<configuration>\n");
+    }
+
+    @Override
+    public void add(String key, File file, int count) throws IOException {
+      writer.write("  <property >\n");
+      writer.write("    <name>");
+      writer.write(StringEscapeUtils.escapeXml(key));
+      writer.write("</name>\n");
+      writer.write("    <value></value>\n");
+      writer.write("  </property>\n");
+    }
+
+    @Override
+    public void end() throws IOException {
+      writer.write("</configuration>\n");
+      super.end();
+    }
+  }
+
+  /**
+   * One JSON object per line, with the key, file, and count fields.
+   */
+  static class JsonLinesSink extends ResultSink {
+
+    JsonLinesSink(Writer writer, boolean console) {
+      super(writer, console);
+    }
+
+    @Override
+    public void add(String key, File file, int count) throws IOException {
+      writer.write("{\"key\":\"");
+      writer.write(StringEscapeUtils.escapeJava(key));
+      writer.write("\",\"file\":\"");
+      writer.write(StringEscapeUtils.escapeJava(file.getPath()));
+      writer.write("\",\"count\":");
+      writer.write(Integer.toString(count));
+      writer.write("}\n");
+    }
+  }
+
+  /**
+   * Comma separated values, with a header line naming the key, file, and count columns.
+   */
+  static class CsvSink extends ResultSink {
+
+    CsvSink(Writer writer, boolean console) {
+      super(writer, console);
+    }
+
+    @Override
+    public void begin() throws IOException {
+      writer.write("key,file,count\n");
+    }
+
+    @Override
+    public void add(String key, File file, int count) throws IOException {
+      writeField(key);
+      writer.write(',');
+      writeField(file.getPath());
+      writer.write(',');
+      writer.write(Integer.toString(count));
+      writer.write('\n');
+    }
+
+    private void writeField(String field) throws IOException {
+      writer.write(quote(field));
+    }
+
+    /**
+     * Quotes a field if it contains a comma, quote, or line break.
+     *
+     * @param field The field to quote.
+     * @return The field, quoted if needed.
+     */
+    static String quote(String field) {
+      if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0)
+        return field;
+      return '"' + field.replace("\"", "\"\"") + '"';
+    }
+  }
+}
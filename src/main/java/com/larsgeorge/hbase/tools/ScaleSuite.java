@@ -0,0 +1,400 @@
+package com.larsgeorge.hbase.tools;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.LineIterator;
+import org.apache.commons.io.output.NullOutputStream;
+
+/**
+ * Runs the differ and the finder end to end against a generated corpus of the requested size,
+ * and records the wall time, peak heap, and garbage collections of each run. Every scenario is
+ * run in this JVM, after a number of warm up runs, with the output of the tools discarded.
+ * <p/>
+ * The results can be appended to a CSV file, and compared to a baseline written by an earlier
+ * run. A scenario whose median time exceeds the baseline by more than the tolerance is reported
+ * as a regression, which lets the suite fail a build before a scaling problem reaches users.
+ */
+public class ScaleSuite implements Runnable {
+
+  private static final String CORPUS_PARAMETERS = "corpus.properties";
+  private static final String CSV_HEADER = "scenario,properties,versions,files,run,wallMs," +
+    "peakHeapBytes,gcCount,gcMs";
+
+  @Parameter(names = { "-h", "--help" }, description = "Print this help", help = true)
+  private boolean printHelp = false;
+  @Parameter(names = { "-d", "--directory" }, description = "Directory of the corpus, defaults " +
+    "to a temporary directory removed afterwards")
+  private String directory = null;
+  @Parameter(names = "--reuse", description = "Reuse the corpus in the directory if generated " +
+    "before with the same parameters, instead of generating it anew")
+  private boolean reuse = false;
+  @Parameter(names = "--properties", description = "Number of properties of the first version")
+  private int numProperties = 20000;
+  @Parameter(names = "--versions", description = "Number of configuration versions")
+  private int numVersions = 5;
+  @Parameter(names = "--addRate", description = "Share of properties added by each version")
+  private double addRate = 0.05;
+  @Parameter(names = "--renameRate", description = "Share of properties renamed by each version")
+  private double renameRate = 0.01;
+  @Parameter(names = "--changeRate", description = "Share of properties changed by each version")
+  private double changeRate = 0.05;
+  @Parameter(names = "--removeRate", description = "Share of properties removed by each version")
+  private double removeRate = 0.02;
+  @Parameter(names = "--files", description = "Number of source files")
+  private int numFiles = 2000;
+  @Parameter(names = "--keysPerFile", description = "Number of key usages per source file")
+  private int keysPerFile = 20;
+  @Parameter(names = "--seed", description = "Seed of the generated corpus")
+  private long seed = 1;
+  @Parameter(names = { "-p", "--threads" }, description = "Number of threads of the tools")
+  private int numThreads = 3;
+  @Parameter(names = { "-s", "--scenarios" }, description = "Space separated list of scenarios " +
+    "to run, of: differ, differ-renames, finder, finder-java", variableArity = true)
+  private List<String> scenarios = Arrays.asList("differ", "differ-renames", "finder",
+    "finder-java");
+  @Parameter(names = { "-r", "--runs" }, description = "Number of measured runs per scenario")
+  private int numRuns = 3;
+  @Parameter(names = { "-w", "--warmups" }, description = "Number of unmeasured runs per " +
+    "scenario, to let the JIT compiler settle")
+  private int numWarmups = 1;
+  @Parameter(names = { "-o", "--outputFile" }, description = "Append the results of all runs " +
+    "to the given CSV file")
+  private String outputFile = null;
+  @Parameter(names = { "-b", "--baseline" }, description = "CSV file of an earlier run to " +
+    "compare the median times with")
+  private String baseline = null;
+  @Parameter(names = "--tolerance", description = "Share a median time may exceed the baseline " +
+    "by, before it counts as a regression")
+  private double tolerance = 0.25;
+
+  private File corpusDir;
+  private List<File> configFiles = new ArrayList<File>();
+  private int numFailed = 0;
+
+  /**
+   * The measurements of a single run.
+   */
+  static class Measurement {
+    private long wallMs;
+    private long peakHeap;
+    private long gcCount;
+    private long gcMs;
+  }
+
+  /**
+   * Returns the parameters the corpus is generated with, which must match for it to be reused.
+   */
+  private Properties getCorpusParameters() {
+    Properties params = new Properties();
+    params.setProperty("properties", String.valueOf(numProperties));
+    params.setProperty("versions", String.valueOf(numVersions));
+    params.setProperty("addRate", String.valueOf(addRate));
+    params.setProperty("renameRate", String.valueOf(renameRate));
+    params.setProperty("changeRate", String.valueOf(changeRate));
+    params.setProperty("removeRate", String.valueOf(removeRate));
+    params.setProperty("files", String.valueOf(numFiles));
+    params.setProperty("keysPerFile", String.valueOf(keysPerFile));
+    params.setProperty("seed", String.valueOf(seed));
+    return params;
+  }
+
+  /**
+   * Checks whether the corpus in the directory was completely generated with the current
+   * parameters, which are written next to it once it is done.
+   */
+  private boolean isCorpusReusable() throws IOException {
+    File file = new File(corpusDir, CORPUS_PARAMETERS);
+    if (!file.isFile()) return false;
+    Properties stored = new Properties();
+    FileInputStream in = new FileInputStream(file);
+    try {
+      stored.load(in);
+    } finally {
+      in.close();
+    }
+    return stored.equals(getCorpusParameters());
+  }
+
+  /**
+   * Generates the corpus, unless it is reused.
+   *
+   * @throws IOException When writing the corpus fails.
+   */
+  private void prepareCorpus() throws IOException {
+    File configDir = new File(corpusDir, "conf");
+    for (int v = 0; v < numVersions; v++) configFiles.add(new File(configDir, "v" + v + ".xml"));
+    if (reuse) {
+      if (isCorpusReusable()) {
+        System.out.println("Reusing corpus in " + corpusDir);
+        return;
+      }
+      System.out.println("No corpus with the same parameters in " + corpusDir +
+        ", generating it anew");
+    }
+    File paramsFile = new File(corpusDir, CORPUS_PARAMETERS);
+    FileUtils.deleteQuietly(paramsFile);
+    FileUtils.deleteQuietly(configDir);
+    FileUtils.deleteQuietly(new File(corpusDir, "src"));
+    long start = System.currentTimeMillis();
+    CorpusGenerator generator = new CorpusGenerator(seed);
+    generator.generateConfigs(configDir, numProperties, numVersions, addRate, renameRate,
+      changeRate, removeRate);
+    int usages = generator.generateSources(new File(corpusDir, "src"), numFiles, keysPerFile);
+    System.out.println("Generated " + generator.getKeys().size() + " keys in " + numVersions +
+      " versions, with " + generator.getNumRenames() + " renames, and " + numFiles +
+      " source files with " + usages + " usages in " + (System.currentTimeMillis() - start) +
+      " ms.");
+    FileOutputStream out = new FileOutputStream(paramsFile);
+    try {
+      getCorpusParameters().store(out, "Parameters of the generated corpus");
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Runs a scenario once, with all output discarded.
+   *
+   * @param scenario The name of the scenario.
+   * @throws Exception When the tool fails.
+   */
+  private void runScenario(String scenario) throws Exception {
+    PrintStream out = new PrintStream(new NullOutputStream());
+    if (scenario.startsWith("differ")) {
+      List<String> args = new ArrayList<String>();
+      args.addAll(Arrays.asList("--threads", String.valueOf(numThreads)));
+      if (scenario.equals("differ-renames")) {
+        args.add("--renames");
+        args.add(new File(corpusDir, "conf/renames.properties").getPath());
+      }
+      for (int v = 0; v < configFiles.size(); v++) {
+        args.add(configFiles.get(v).getPath());
+        args.add("v" + v);
+      }
+      DifferParameters params = new DifferParameters();
+      JCommander jc = new JCommander(params);
+      jc.parse(args.toArray(new String[args.size()]));
+      new ConfigDiffer(params, out, null).execute();
+    } else {
+      List<String> args = new ArrayList<String>(Arrays.asList("-d",
+        new File(corpusDir, "src").getPath(), "-p", String.valueOf(numThreads), "-s", "-u"));
+      if (scenario.equals("finder-java")) args.add("--java");
+      FindProperties fp = new FindProperties();
+      JCommander jc = new JCommander(fp);
+      jc.parse(args.toArray(new String[args.size()]));
+      fp.setOut(out);
+      fp.execute();
+    }
+  }
+
+  /**
+   * Runs a scenario once, measuring the time, the peak heap usage, and the garbage
+   * collections. The peak is the sum of the peaks of all heap pools, which may overstate the
+   * true peak somewhat, but reliably shows a growing footprint.
+   */
+  private Measurement measure(String scenario) throws Exception {
+    System.gc();
+    List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+        pool.resetPeakUsage();
+        pools.add(pool);
+      }
+    }
+    long gcCount = 0, gcMs = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      gcCount -= Math.max(gc.getCollectionCount(), 0);
+      gcMs -= Math.max(gc.getCollectionTime(), 0);
+    }
+    long start = System.nanoTime();
+    runScenario(scenario);
+    Measurement m = new Measurement();
+    m.wallMs = (System.nanoTime() - start) / 1000000;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      gcCount += Math.max(gc.getCollectionCount(), 0);
+      gcMs += Math.max(gc.getCollectionTime(), 0);
+    }
+    for (MemoryPoolMXBean pool : pools) m.peakHeap += pool.getPeakUsage().getUsed();
+    m.gcCount = gcCount;
+    m.gcMs = gcMs;
+    return m;
+  }
+
+  private static long median(List<Long> values) {
+    List<Long> sorted = new ArrayList<Long>(values);
+    Collections.sort(sorted);
+    return sorted.get(sorted.size() / 2);
+  }
+
+  /**
+   * Reads the median time of each scenario from a baseline file, considering only the runs
+   * with the same corpus size.
+   */
+  private Map<String, Long> readBaseline() throws IOException {
+    Map<String, List<Long>> times = new HashMap<String, List<Long>>();
+    LineIterator it = FileUtils.lineIterator(new File(baseline), "UTF-8");
+    try {
+      while (it.hasNext()) {
+        String[] fields = it.nextLine().split(",");
+        if (fields.length < 6 || fields[0].equals("scenario")) continue;
+        if (Integer.parseInt(fields[1]) != numProperties ||
+          Integer.parseInt(fields[2]) != numVersions || Integer.parseInt(fields[3]) != numFiles)
+          continue;
+        List<Long> list = times.get(fields[0]);
+        if (list == null) {
+          list = new ArrayList<Long>();
+          times.put(fields[0], list);
+        }
+        list.add(Long.parseLong(fields[5]));
+      }
+    } finally {
+      it.close();
+    }
+    Map<String, Long> medians = new HashMap<String, Long>();
+    for (Map.Entry<String, List<Long>> entry : times.entrySet())
+      medians.put(entry.getKey(), median(entry.getValue()));
+    return medians;
+  }
+
+  @Override
+  public void run() {
+    boolean temporary = directory == null;
+    try {
+      for (String scenario : scenarios) {
+        if (!Arrays.asList("differ", "differ-renames", "finder", "finder-java").contains(scenario))
+          throw new IllegalArgumentException("Unknown scenario: " + scenario);
+      }
+      if (numVersions < 2) throw new IllegalArgumentException("Need at least two versions");
+      Map<String, Long> baselines = baseline != null ? readBaseline() :
+        new HashMap<String, Long>();
+      if (temporary) {
+        corpusDir = File.createTempFile("scale-", ".corpus");
+        if (!corpusDir.delete() || !corpusDir.mkdir())
+          throw new IOException("Failed creating corpus directory " + corpusDir);
+      } else {
+        corpusDir = new File(directory);
+      }
+      prepareCorpus();
+      Map<String, List<Measurement>> results = new LinkedHashMap<String, List<Measurement>>();
+      for (String scenario : scenarios) {
+        for (int i = 0; i < numWarmups; i++) runScenario(scenario);
+        List<Measurement> runs = new ArrayList<Measurement>();
+        for (int i = 0; i < numRuns; i++) runs.add(measure(scenario));
+        results.put(scenario, runs);
+      }
+      if (outputFile != null) writeResults(results);
+      printResults(results, baselines);
+    } catch (Exception e) {
+      System.err.println("ERROR: " + e);
+      numFailed++;
+    } finally {
+      if (temporary && corpusDir != null) FileUtils.deleteQuietly(corpusDir);
+    }
+  }
+
+  private void writeResults(Map<String, List<Measurement>> results) throws IOException {
+    File file = new File(outputFile);
+    boolean header = !file.exists() || file.length() == 0;
+    PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file, true),
+      "UTF-8"));
+    try {
+      if (header) out.println(CSV_HEADER);
+      for (Map.Entry<String, List<Measurement>> entry : results.entrySet()) {
+        int run = 0;
+        for (Measurement m : entry.getValue()) {
+          out.println(entry.getKey() + "," + numProperties + "," + numVersions + "," + numFiles +
+            "," + (run++) + "," + m.wallMs + "," + m.peakHeap + "," + m.gcCount + "," + m.gcMs);
+        }
+      }
+      if (out.checkError()) throw new IOException("Failed writing " + file);
+    } finally {
+      out.close();
+    }
+  }
+
+  private void printResults(Map<String, List<Measurement>> results,
+    Map<String, Long> baselines) {
+    int regressions = 0;
+    System.out.println(String.format("%-16s %10s %10s %12s %8s %8s %10s", "Scenario",
+      "Median ms", "Max ms", "Peak heap MB", "GCs", "GC ms", "Baseline"));
+    for (Map.Entry<String, List<Measurement>> entry : results.entrySet()) {
+      List<Long> times = new ArrayList<Long>();
+      List<Long> gcCounts = new ArrayList<Long>();
+      List<Long> gcTimes = new ArrayList<Long>();
+      long peak = 0;
+      for (Measurement m : entry.getValue()) {
+        times.add(m.wallMs);
+        gcCounts.add(m.gcCount);
+        gcTimes.add(m.gcMs);
+        peak = Math.max(peak, m.peakHeap);
+      }
+      long time = median(times);
+      Long base = baselines.get(entry.getKey());
+      String compared = "-";
+      if (base != null) {
+        compared = String.format("%+.0f%%", base > 0 ? (time - base) * 100.0 / base : 0.0);
+        if (time > base * (1 + tolerance) && time - base > 10) {
+          compared += " REGRESSION";
+          regressions++;
+        }
+      }
+      System.out.println(String.format("%-16s %10d %10d %12d %8d %8d %10s", entry.getKey(),
+        time, Collections.max(times), peak / (1024 * 1024), median(gcCounts), median(gcTimes),
+        compared));
+    }
+    if (regressions > 0) {
+      System.out.println(regressions + " scenarios regressed by more than " +
+        Math.round(tolerance * 100) + "% against the baseline.");
+      numFailed += regressions;
+    }
+  }
+
+  /**
+   * Main entry point. Starts the processing.
+   *
+   * @param args The command line arguments.
+   */
+  public static void main(String[] args) {
+    try {
+      ScaleSuite ss = new ScaleSuite();
+      JCommander jc = new JCommander(ss);
+      jc.setProgramName(ScaleSuite.class.getSimpleName());
+      try {
+        jc.parse(args);
+        if (ss.printHelp) {
+          jc.usage();
+          System.exit(0);
+        }
+      } catch (Exception e) {
+        System.err.println(e.getMessage());
+        jc.usage();
+        System.exit(-1);
+      }
+      ss.run();
+      if (ss.numFailed > 0) System.exit(1);
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+}
@@ -0,0 +1,450 @@
+package com.larsgeorge.hbase.tools;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Spreads a scan over several worker processes. The files found by the directory walk are
+ * partitioned into shards, either by the hash of their path or into bins of about the same
+ * total size, and the list of each shard is written to a file. For every shard one worker JVM
+ * is started with the same class path, scanning the listed files and writing all matches to a
+ * shard file. Once all workers are done, the coordinator reads the shard files back and hands
+ * the matches on as if they were found by its own threads.
+ * <p/>
+ * Workers are started on the local machine by default. Given a launcher command, such as
+ * <code>ssh node{shard}</code>, the worker command is appended to it instead, quoted as a single
+ * shell command line, so workers can run on any host that shares the file system, and with it
+ * the class path and the shard directory.
+ */
+class ShardCoordinator implements Closeable {
+
+  /** How the files are assigned to shards. */
+  enum Partitioning { HASH, SIZE }
+
+  private static final int MAGIC = 0x46505331;
+  // the record types of a shard file
+  private static final byte END = 0;
+  private static final byte MATCHES = 1;
+  private static final byte DECLARED = 2;
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private int numShards;
+  private Partitioning partitioning;
+  private File workDir;
+  private List<String> launcher;
+  private List<String> jvmOptions;
+  private boolean verbose;
+
+  /**
+   * Creates a new instance of this class.
+   *
+   * @param numShards The number of shards, i.e. worker processes.
+   * @param partitioning How the files are assigned to shards.
+   * @param shardDir The directory for the list and shard files, or <code>null</code> for the
+   *   system temporary directory.
+   * @param launcher The command to start each worker with, or <code>null</code> to start them
+   *   locally. Its words may be quoted like in a shell.
+   * @param jvmOptions Additional options for the worker JVMs, e.g. the heap size.
+   * @param verbose Whether to report the progress of the workers.
+   * @throws IOException When the working directory cannot be created.
+   * @throws IllegalArgumentException When the launcher has an unclosed quote.
+   */
+  ShardCoordinator(int numShards, Partitioning partitioning, File shardDir, String launcher,
+    List<String> jvmOptions, boolean verbose) throws IOException {
+    this.numShards = numShards;
+    this.partitioning = partitioning;
+    this.launcher = launcher != null ? splitCommand(launcher) : null;
+    this.jvmOptions = jvmOptions;
+    this.verbose = verbose;
+    // a unique directory per run, so that concurrent runs can share the shard directory
+    workDir = File.createTempFile("findprops-", ".shards", shardDir);
+    if (!workDir.delete() || !workDir.mkdir())
+      throw new IOException("Failed creating shard directory " + workDir);
+  }
+
+  /**
+   * Assigns the files to the shards.
+   *
+   * @param files The files to assign.
+   * @return The files of each shard.
+   */
+  List<List<File>> partition(Collection<File> files) {
+    List<List<File>> shards = new ArrayList<List<File>>(numShards);
+    for (int i = 0; i < numShards; i++) shards.add(new ArrayList<File>());
+    if (partitioning == Partitioning.HASH) {
+      for (File file : files)
+        shards.get((file.getPath().hashCode() & Integer.MAX_VALUE) % numShards).add(file);
+      return shards;
+    }
+    // largest files first, each into the shard with the smallest total so far
+    final long[] sizes = new long[numShards];
+    List<File> bySize = new ArrayList<File>(files);
+    final long[] fileSizes = new long[bySize.size()];
+    Integer[] order = new Integer[bySize.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+      fileSizes[i] = bySize.get(i).length();
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer i1, Integer i2) {
+        return fileSizes[i2] < fileSizes[i1] ? -1 : (fileSizes[i2] == fileSizes[i1] ? 0 : 1);
+      }
+    });
+    PriorityQueue<Integer> bins = new PriorityQueue<Integer>(numShards,
+      new Comparator<Integer>() {
+        @Override
+        public int compare(Integer b1, Integer b2) {
+          if (sizes[b1] != sizes[b2]) return sizes[b1] < sizes[b2] ? -1 : 1;
+          return b1 - b2;
+        }
+      });
+    for (int i = 0; i < numShards; i++) bins.add(i);
+    for (Integer i : order) {
+      int bin = bins.poll();
+      shards.get(bin).add(bySize.get(i));
+      sizes[bin] += fileSizes[i];
+      bins.add(bin);
+    }
+    // keep the files of each shard in walk order
+    for (List<File> shard : shards) {
+      Collections.sort(shard, new Comparator<File>() {
+        @Override
+        public int compare(File f1, File f2) {
+          return f1.getAbsolutePath().compareTo(f2.getAbsolutePath());
+        }
+      });
+    }
+    return shards;
+  }
+
+  /**
+   * Partitions the files, runs a worker for each shard, and waits for all of them.
+   *
+   * @param files The files to scan.
+   * @param workerArgs The arguments of the worker command, to which the list and shard file
+   *   options are added.
+   * @return The shard files written by the workers, in shard order.
+   * @throws IOException When a worker cannot be started or fails.
+   * @throws InterruptedException When waiting for the workers is interrupted.
+   */
+  public List<File> run(Collection<File> files, List<String> workerArgs)
+    throws IOException, InterruptedException {
+    List<List<File>> shards = partition(files);
+    List<File> outputs = new ArrayList<File>();
+    List<Process> processes = new ArrayList<Process>();
+    int failed = 0;
+    boolean done = false;
+    try {
+      for (int i = 0; i < shards.size(); i++) {
+        List<File> shard = shards.get(i);
+        if (shard.isEmpty()) continue;
+        File list = new File(workDir, String.format("shard-%04d.files", i));
+        File output = new File(workDir, String.format("shard-%04d.out", i));
+        List<String> paths = new ArrayList<String>(shard.size());
+        for (File file : shard) paths.add(file.getAbsolutePath());
+        FileUtils.writeLines(list, "UTF-8", paths, "\n");
+        List<String> command = getCommand(i, workerArgs, list, output);
+        if (verbose) System.err.println("Starting shard " + i + " with " + shard.size() + " files");
+        processes.add(new ProcessBuilder(command).inheritIO().start());
+        outputs.add(output);
+      }
+      for (int i = 0; i < processes.size(); i++) {
+        int exitCode = processes.get(i).waitFor();
+        if (exitCode != 0) {
+          System.err.println("Shard worker for " + outputs.get(i).getName() +
+            " failed with exit code " + exitCode);
+          failed++;
+        }
+      }
+      done = true;
+    } finally {
+      // stop the workers started so far, before their directory is removed
+      if (!done) destroy(processes);
+    }
+    if (failed > 0) throw new IOException(failed + " of " + processes.size() + " shards failed");
+    return outputs;
+  }
+
+  private static void destroy(List<Process> processes) {
+    for (Process process : processes) process.destroy();
+    for (Process process : processes) {
+      try {
+        process.waitFor();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  private List<String> getCommand(int shard, List<String> workerArgs, File list, File output) {
+    List<String> command = new ArrayList<String>();
+    command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator +
+      "java");
+    command.addAll(jvmOptions);
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(FindProperties.class.getName());
+    command.addAll(workerArgs);
+    command.addAll(Arrays.asList("--shardFiles", list.getAbsolutePath(),
+      "--shardOutput", output.getAbsolutePath()));
+    if (launcher == null) return command;
+    // launchers like ssh hand the command to a shell, so it is passed as one quoted string
+    StringBuilder line = new StringBuilder();
+    for (String part : command) {
+      if (line.length() > 0) line.append(' ');
+      line.append(quote(part));
+    }
+    List<String> launch = new ArrayList<String>();
+    for (String part : launcher)
+      launch.add(part.replace("{shard}", String.valueOf(shard)));
+    launch.add(line.toString());
+    return launch;
+  }
+
+  /**
+   * Quotes a word for a POSIX shell, so that it is passed on unchanged.
+   */
+  static String quote(String word) {
+    return "'" + word.replace("'", "'\\''") + "'";
+  }
+
+  /**
+   * Splits a command line into its words at unquoted white space, removing the single and
+   * double quotes and backslash escapes like a shell does.
+   *
+   * @throws IllegalArgumentException When a quote is not closed.
+   */
+  static List<String> splitCommand(String line) {
+    List<String> words = new ArrayList<String>();
+    StringBuilder word = new StringBuilder();
+    boolean inWord = false;
+    char quote = 0;
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (quote == '\'') {
+        if (c == '\'') quote = 0;
+        else word.append(c);
+      } else if (c == '\\' && i + 1 < line.length() &&
+        (quote == 0 || "\"\\$`".indexOf(line.charAt(i + 1)) >= 0)) {
+        word.append(line.charAt(++i));
+        inWord = true;
+      } else if (quote == '"') {
+        if (c == '"') quote = 0;
+        else word.append(c);
+      } else if (c == '\'' || c == '"') {
+        quote = c;
+        inWord = true;
+      } else if (Character.isWhitespace(c)) {
+        if (inWord) words.add(word.toString());
+        word.setLength(0);
+        inWord = false;
+      } else {
+        word.append(c);
+        inWord = true;
+      }
+    }
+    if (quote != 0) throw new IllegalArgumentException("Unclosed quote in command: " + line);
+    if (inWord) words.add(word.toString());
+    return words;
+  }
+
+  /**
+   * Removes the list and shard files.
+   */
+  @Override
+  public void close() {
+    FileUtils.deleteQuietly(workDir);
+  }
+
+  /**
+   * Writes the matches of a worker, one record per file, or the keys declared by a
+   * configuration file. The file ends with the number of
+   * records, which tells a complete shard file from one cut short by a failing worker.
+   */
+  static class ShardWriter implements Closeable {
+    private DataOutputStream out;
+    private int numRecords = 0;
+    private IOException error = null;
+
+    ShardWriter(File file) throws IOException {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),
+        BUFFER_SIZE));
+      out.writeInt(MAGIC);
+    }
+
+    /**
+     * Writes the matches found in a file.
+     *
+     * @param file The scanned file.
+     * @param matches The matches found in it.
+     * @param lines The line of each match.
+     * @param columns The column of each match.
+     * @throws IOException When writing fails.
+     */
+    public synchronized void write(File file, List<String> matches, int[] lines, int[] columns)
+      throws IOException {
+      try {
+        out.writeByte(MATCHES);
+        out.writeUTF(file.getPath());
+        out.writeInt(matches.size());
+        for (int i = 0; i < matches.size(); i++) {
+          out.writeUTF(matches.get(i));
+          out.writeInt(lines[i]);
+          out.writeInt(columns[i]);
+        }
+        numRecords++;
+      } catch (IOException e) {
+        if (error == null) error = e;
+        throw e;
+      }
+    }
+
+    /**
+     * Writes the keys declared by a configuration file.
+     *
+     * @param file The configuration file.
+     * @param keys The keys declared in it.
+     * @throws IOException When writing fails.
+     */
+    public synchronized void writeDeclared(File file, Collection<String> keys)
+      throws IOException {
+      try {
+        out.writeByte(DECLARED);
+        out.writeUTF(file.getPath());
+        out.writeInt(keys.size());
+        for (String key : keys) out.writeUTF(key);
+        numRecords++;
+      } catch (IOException e) {
+        if (error == null) error = e;
+        throw e;
+      }
+    }
+
+    /**
+     * Marks the shard file as complete, unless writing a record failed before.
+     *
+     * @throws IOException When writing fails, or failed before.
+     */
+    public synchronized void finish() throws IOException {
+      if (error != null) throw error;
+      out.writeByte(END);
+      out.writeInt(numRecords);
+      out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      out.close();
+    }
+  }
+
+  /**
+   * Reads the records of a shard file one by one.
+   */
+  static class ShardReader implements Closeable {
+    private File shard;
+    private DataInputStream in;
+    private int numRecords = 0;
+    private File file;
+    private boolean declared;
+    private List<String> matches = new ArrayList<String>();
+    private int[] lines = new int[16];
+    private int[] columns = new int[16];
+
+    ShardReader(File shard) throws IOException {
+      this.shard = shard;
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(shard), BUFFER_SIZE));
+      if (in.readInt() != MAGIC) throw new IOException("Not a shard file: " + shard);
+    }
+
+    /**
+     * Advances to the next record.
+     *
+     * @return <code>true</code> when a record was read, <code>false</code> at the end.
+     * @throws IOException When the shard file is incomplete or corrupt.
+     */
+    public boolean next() throws IOException {
+      try {
+        byte type = in.readByte();
+        if (type == END) {
+          if (in.readInt() != numRecords)
+            throw new IOException("Shard file " + shard + " has a wrong number of records");
+          return false;
+        }
+        if (type != MATCHES && type != DECLARED)
+          throw new IOException("Shard file " + shard + " is corrupt");
+        declared = type == DECLARED;
+        file = new File(in.readUTF());
+        int n = in.readInt();
+        matches.clear();
+        if (declared) {
+          for (int i = 0; i < n; i++) matches.add(in.readUTF());
+          numRecords++;
+          return true;
+        }
+        if (n > lines.length) {
+          lines = new int[n];
+          columns = new int[n];
+        }
+        for (int i = 0; i < n; i++) {
+          matches.add(in.readUTF());
+          lines[i] = in.readInt();
+          columns[i] = in.readInt();
+        }
+        numRecords++;
+        return true;
+      } catch (EOFException e) {
+        throw new IOException("Shard file " + shard + " is incomplete", e);
+      }
+    }
+
+    public File getFile() {
+      return file;
+    }
+
+    /**
+     * Returns <code>true</code> when the record holds the keys declared by a configuration
+     * file, returned by {@link #getMatches()}, without lines and columns.
+     */
+    public boolean isDeclared() {
+      return declared;
+    }
+
+    public List<String> getMatches() {
+      return matches;
+    }
+
+    public int[] getLines() {
+      return lines;
+    }
+
+    public int[] getColumns() {
+      return columns;
+    }
+
+    @Override
+    public void close() {
+      IOUtils.closeQuietly(in);
+    }
+  }
+}
@@ -0,0 +1,310 @@
+package com.larsgeorge.hbase.tools;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Indexes the keys of a list of configurations per version. Every key gets an id, which is its
+ * position in the sorted key space, and every version a bitmap of the keys present in it and
+ * one of the keys whose property changed compared to the previous version. Questions across
+ * versions are answered by combining the bitmaps, for example:
+ * <pre>
+ *   present:0.90..0.94 &amp; !present:0.96   keys in all of 0.90 to 0.94, but not in 0.96
+ *   addedAfter:0.92 &amp; changed:0.96       keys added after 0.92 that changed in 0.96
+ *   changes&gt;3 | removedBefore:0.94        keys changed in more than 3 versions, or dropped
+ * </pre>
+ * The predicates are <code>present</code>, <code>added</code>, <code>removed</code>, and
+ * <code>changed</code>, taking a version or an inclusive range of versions. A range means all
+ * versions for <code>present</code>, and any version for the others. Further predicates are
+ * <code>addedAfter</code>, <code>addedBefore</code>, <code>removedAfter</code>,
+ * <code>removedBefore</code>, <code>changedAfter</code>, and <code>changedBefore</code>, all
+ * exclusive of the given version, <code>changes</code> compared to a number using one of
+ * <code>&lt; &lt;= = &gt;= &gt;</code>, and <code>all</code>. They combine with
+ * <code>&amp;</code>, <code>|</code>, <code>!</code>, and parentheses.
+ */
+class VersionTimeline {
+  private String[] keys;
+  private List<String> versions;
+  private Map<String, Integer> versionIndex = new HashMap<String, Integer>();
+  private BitSet[] present;
+  private BitSet[] changed;
+  private int[] changeCounts = null;
+
+  /**
+   * Creates a new instance of this class.
+   *
+   * @param versions The names of the versions, in the order of the configurations.
+   * @param configDiff The configurations to index.
+   */
+  VersionTimeline(List<String> versions, ConfigurationDiff configDiff) {
+    this.versions = versions;
+    keys = new String[configDiff.getKeyCount()];
+    for (int k = 0; k < keys.length; k++) keys[k] = configDiff.getKey(k);
+    List<Configuration> configs = configDiff.getConfigs();
+    present = new BitSet[configs.size()];
+    changed = new BitSet[configs.size()];
+    for (int v = 0; v < configs.size(); v++) {
+      // later duplicates of a version name are only reachable by a range
+      if (!versionIndex.containsKey(versions.get(v))) versionIndex.put(versions.get(v), v);
+      present[v] = new BitSet(keys.length);
+      changed[v] = new BitSet(keys.length);
+      Configuration conf = configs.get(v);
+      Configuration prevConf = v > 0 ? configs.get(v - 1) : null;
+      int k = 0;
+      // both the keys of the configuration and all keys are sorted, so a merge assigns the ids
+      for (String key : conf.getKeys()) {
+        while (!keys[k].equals(key)) k++;
+        present[v].set(k);
+        if (prevConf != null) {
+          Property p2 = prevConf.getProperty(key);
+          if (p2 != null && !p2.equals(conf.getProperty(key))) changed[v].set(k);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the number of distinct keys across all versions.
+   */
+  public int getKeyCount() {
+    return keys.length;
+  }
+
+  public String getKey(int id) {
+    return keys[id];
+  }
+
+  /**
+   * Returns the keys present in the given version.
+   */
+  public BitSet present(int version) {
+    return (BitSet) present[version].clone();
+  }
+
+  /**
+   * Returns the keys present in the given version, but not in the one before it. All keys of
+   * the first version count as added.
+   */
+  public BitSet added(int version) {
+    BitSet bits = present(version);
+    if (version > 0) bits.andNot(present[version - 1]);
+    return bits;
+  }
+
+  /**
+   * Returns the keys present in the previous version, but not in the given one.
+   */
+  public BitSet removed(int version) {
+    BitSet bits = new BitSet(keys.length);
+    if (version > 0) {
+      bits.or(present[version - 1]);
+      bits.andNot(present[version]);
+    }
+    return bits;
+  }
+
+  /**
+   * Returns the keys present in the given and the previous version with different properties.
+   */
+  public BitSet changed(int version) {
+    return (BitSet) changed[version].clone();
+  }
+
+  /**
+   * Returns for every key the number of versions it changed in.
+   */
+  public synchronized int[] getChangeCounts() {
+    if (changeCounts == null) {
+      changeCounts = new int[keys.length];
+      for (BitSet bits : changed) {
+        for (int k = bits.nextSetBit(0); k >= 0; k = bits.nextSetBit(k + 1)) changeCounts[k]++;
+      }
+    }
+    return changeCounts;
+  }
+
+  /**
+   * Evaluates a query, see the class description for the syntax.
+   *
+   * @param query The query to evaluate.
+   * @return The ids of the matching keys.
+   * @throws IllegalArgumentException When the query is malformed.
+   */
+  public BitSet query(String query) {
+    return new QueryParser(query).parse();
+  }
+
+  /**
+   * Returns the keys matching a query, in sorted order.
+   *
+   * @param query The query to evaluate.
+   * @return The list of matching keys.
+   * @throws IllegalArgumentException When the query is malformed.
+   */
+  public List<String> queryKeys(String query) {
+    BitSet bits = query(query);
+    List<String> result = new ArrayList<String>(bits.cardinality());
+    for (int k = bits.nextSetBit(0); k >= 0; k = bits.nextSetBit(k + 1)) result.add(keys[k]);
+    return result;
+  }
+
+  private int version(String name) {
+    Integer index = versionIndex.get(name);
+    if (index == null) throw new IllegalArgumentException("Unknown version: " + name);
+    return index;
+  }
+
+  /**
+   * A recursive descent parser evaluating the query while parsing it.
+   */
+  private class QueryParser {
+    private String query;
+    private int pos = 0;
+
+    QueryParser(String query) {
+      this.query = query;
+    }
+
+    BitSet parse() {
+      BitSet bits = or();
+      skipSpace();
+      if (pos < query.length()) throw error("Unexpected '" + query.charAt(pos) + "'");
+      return bits;
+    }
+
+    private BitSet or() {
+      BitSet bits = and();
+      while (accept('|')) bits.or(and());
+      return bits;
+    }
+
+    private BitSet and() {
+      BitSet bits = not();
+      while (accept('&')) bits.and(not());
+      return bits;
+    }
+
+    private BitSet not() {
+      if (accept('!')) {
+        BitSet bits = not();
+        bits.flip(0, keys.length);
+        return bits;
+      }
+      if (accept('(')) {
+        BitSet bits = or();
+        if (!accept(')')) throw error("Missing ')'");
+        return bits;
+      }
+      return predicate();
+    }
+
+    private BitSet predicate() {
+      skipSpace();
+      int start = pos;
+      while (pos < query.length() && Character.isLetter(query.charAt(pos))) pos++;
+      String name = query.substring(start, pos);
+      if (name.equals("all")) {
+        BitSet bits = new BitSet(keys.length);
+        bits.set(0, keys.length);
+        return bits;
+      }
+      if (name.equals("changes")) return changes();
+      if (!accept(':')) throw error("Expected a predicate followed by ':'");
+      String arg = argument();
+      if (name.endsWith("After") || name.endsWith("Before")) {
+        boolean after = name.endsWith("After");
+        String base = name.substring(0, name.length() - (after ? 5 : 6));
+        int v = version(arg);
+        return any(base, after ? v + 1 : 0, after ? present.length - 1 : v - 1);
+      }
+      int from, to;
+      int range = arg.indexOf("..");
+      if (range >= 0) {
+        from = version(arg.substring(0, range));
+        to = version(arg.substring(range + 2));
+      } else {
+        from = to = version(arg);
+      }
+      if (from > to) throw error("Empty version range " + arg);
+      if (name.equals("present")) {
+        BitSet bits = present(from);
+        for (int v = from + 1; v <= to; v++) bits.and(present[v]);
+        return bits;
+      }
+      return any(name, from, to);
+    }
+
+    private BitSet any(String name, int from, int to) {
+      BitSet bits = new BitSet(keys.length);
+      for (int v = from; v <= to; v++) {
+        if (name.equals("added")) {
+          bits.or(added(v));
+        } else if (name.equals("removed")) {
+          bits.or(removed(v));
+        } else if (name.equals("changed")) {
+          bits.or(changed[v]);
+        } else {
+          throw error("Unknown predicate: " + name);
+        }
+      }
+      return bits;
+    }
+
+    private BitSet changes() {
+      skipSpace();
+      int start = pos;
+      while (pos < query.length() && "<=>".indexOf(query.charAt(pos)) >= 0) pos++;
+      String op = query.substring(start, pos);
+      String arg = argument();
+      int n;
+      try {
+        n = Integer.parseInt(arg);
+      } catch (NumberFormatException e) {
+        throw error("Expected a number, got '" + arg + "'");
+      }
+      int[] counts = getChangeCounts();
+      BitSet bits = new BitSet(keys.length);
+      for (int k = 0; k < counts.length; k++) {
+        boolean match;
+        if (op.equals("<")) match = counts[k] < n;
+        else if (op.equals("<=")) match = counts[k] <= n;
+        else if (op.equals("=") || op.equals("==")) match = counts[k] == n;
+        else if (op.equals(">=")) match = counts[k] >= n;
+        else if (op.equals(">")) match = counts[k] > n;
+        else throw error("Unknown comparison '" + op + "'");
+        if (match) bits.set(k);
+      }
+      return bits;
+    }
+
+    private String argument() {
+      skipSpace();
+      int start = pos;
+      while (pos < query.length() && !Character.isWhitespace(query.charAt(pos)) &&
+        "&|!()".indexOf(query.charAt(pos)) < 0) pos++;
+      if (start == pos) throw error("Missing argument");
+      return query.substring(start, pos);
+    }
+
+    private boolean accept(char c) {
+      skipSpace();
+      if (pos < query.length() && query.charAt(pos) == c) {
+        pos++;
+        return true;
+      }
+      return false;
+    }
+
+    private void skipSpace() {
+      while (pos < query.length() && Character.isWhitespace(query.charAt(pos))) pos++;
+    }
+
+    private IllegalArgumentException error(String message) {
+      return new IllegalArgumentException(message + " at position " + pos + " of query: " +
+        query);
+    }
+  }
+}
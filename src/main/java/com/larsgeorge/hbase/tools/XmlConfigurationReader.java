@@ -0,0 +1,191 @@
+package com.larsgeorge.hbase.tools;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.Text;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the XML based Hadoop style configuration files.
+ */
+class XmlConfigurationReader implements ConfigurationReader {
+  private static final Log LOG = LogFactory.getLog(XmlConfigurationReader.class);
+
+  private static final String XINCLUDE_NS = "http://www.w3.org/2001/XInclude";
+
+  // the factories are not thread safe, so each thread gets its own
+  private static final ThreadLocal<XMLInputFactory> STREAM_FACTORY =
+    new ThreadLocal<XMLInputFactory>() {
+      @Override
+      protected XMLInputFactory initialValue() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+      }
+    };
+
+  @Override
+  public Configuration read(ConfigurationInfo info, ConfigurationUtils utils)
+    throws ParserConfigurationException, IOException, SAXException {
+    Configuration conf = new Configuration();
+    DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
+    docBuilderFactory.setIgnoringComments(true);
+    docBuilderFactory.setNamespaceAware(true);
+    try {
+      docBuilderFactory.setXIncludeAware(true);
+    } catch (UnsupportedOperationException e) {
+      LOG.error("Failed to set setXIncludeAware(true) for parser " +
+        docBuilderFactory + ":" + e, e);
+    }
+    DocumentBuilder builder = docBuilderFactory.newDocumentBuilder();
+    Document doc;
+    if (info.isArchive()) {
+      // parsed straight from the archive, relative includes cannot be resolved then
+      InputStream in = info.openStream();
+      try {
+        doc = builder.parse(in);
+      } finally {
+        in.close();
+      }
+    } else {
+      doc = builder.parse(new File(info.getPath()).getAbsoluteFile());
+    }
+    Element root = doc.getDocumentElement();
+    if (!"configuration".equals(root.getTagName()))
+      LOG.fatal("bad conf file: top-level element not <configuration>");
+    NodeList props = root.getChildNodes();
+    for (int i = 0; i < props.getLength(); i++) {
+      Node propNode = props.item(i);
+      if (!(propNode instanceof Element)) continue;
+      Element prop = (Element)propNode;
+      if (!"property".equals(prop.getTagName()))
+        LOG.warn("bad conf file: element not <property>");
+      NodeList fields = prop.getChildNodes();
+      String attr = null;
+      String value = null;
+      String description = null;
+      boolean finalParameter = false;
+      for (int j = 0; j < fields.getLength(); j++) {
+        Node fieldNode = fields.item(j);
+        if (!(fieldNode instanceof Element)) continue;
+        Element field = (Element)fieldNode;
+        if ("name".equals(field.getTagName()) && field.hasChildNodes())
+          attr = ((Text) field.getFirstChild()).getData().trim();
+        if ("value".equals(field.getTagName()) && field.hasChildNodes())
+          value = ((Text)field.getFirstChild()).getData();
+        if ("description".equals(field.getTagName()) && field.hasChildNodes())
+          description = ((Text)field.getFirstChild()).getData();
+        if (description != null)
+          description = description.replaceAll("\n", " ").replaceAll(" +", " ").trim();
+        if ("final".equals(field.getTagName()) && field.hasChildNodes())
+          finalParameter = "true".equals(((Text)field.getFirstChild()).getData());
+      }
+      if (attr != null) {
+        conf.addProperty(utils.createProperty(attr, value, description, finalParameter,
+          info.getPath(), info));
+      } else {
+        LOG.error("WARNING: Attribute was null!");
+      }
+    }
+    return conf;
+  }
+
+  /**
+   * Reads a configuration with a streaming parser, holding only the current property in
+   * memory. Unlike {@link #read}, includes are not followed. The stream is not closed.
+   *
+   * @param in The stream to read from.
+   * @param info The configuration details, the path is used as the resource of the properties.
+   * @param utils The helper creating the properties.
+   * @return The configuration, or <code>null</code> when the top-level element is not
+   *   <code>&lt;configuration&gt;</code>, i.e. the document is some other XML file.
+   * @throws XMLStreamException When the document is not well-formed.
+   */
+  public Configuration readStreaming(InputStream in, ConfigurationInfo info,
+    ConfigurationUtils utils) throws XMLStreamException {
+    XMLStreamReader xml = STREAM_FACTORY.get().createXMLStreamReader(in);
+    try {
+      if (!nextChild(xml) || !"configuration".equals(xml.getLocalName())) return null;
+      Configuration conf = new Configuration();
+      while (nextChild(xml)) {
+        if (!"property".equals(xml.getLocalName())) {
+          // includes are skipped quietly, as documented
+          if (!XINCLUDE_NS.equals(xml.getNamespaceURI()))
+            LOG.warn("bad conf file: element not <property>");
+          readText(xml);
+          continue;
+        }
+        String attr = null;
+        String value = null;
+        String description = null;
+        boolean finalParameter = false;
+        while (nextChild(xml)) {
+          String field = xml.getLocalName();
+          String text = readText(xml);
+          if ("name".equals(field)) attr = text.trim();
+          else if ("value".equals(field)) value = text;
+          else if ("description".equals(field))
+            description = text.replaceAll("\n", " ").replaceAll(" +", " ").trim();
+          else if ("final".equals(field)) finalParameter = "true".equals(text);
+        }
+        if (attr != null && attr.length() > 0) {
+          conf.addProperty(utils.createProperty(attr, value, description, finalParameter,
+            info.getPath(), info));
+        } else {
+          LOG.error("WARNING: Attribute was null!");
+        }
+      }
+      return conf;
+    } finally {
+      xml.close();
+    }
+  }
+
+  /**
+   * Moves on to the next child element of the current element.
+   *
+   * @return <code>true</code> when positioned at the start of the child, <code>false</code>
+   *   when the current element ended instead.
+   */
+  private static boolean nextChild(XMLStreamReader xml) throws XMLStreamException {
+    while (xml.hasNext()) {
+      int event = xml.next();
+      if (event == XMLStreamConstants.START_ELEMENT) return true;
+      if (event == XMLStreamConstants.END_ELEMENT) return false;
+    }
+    return false;
+  }
+
+  /**
+   * Reads the text of the current element, including that of any nested elements, and moves
+   * on to its end. Text split across lines is returned as is.
+   */
+  private static String readText(XMLStreamReader xml) throws XMLStreamException {
+    StringBuilder sb = new StringBuilder();
+    int depth = 1;
+    while (depth > 0 && xml.hasNext()) {
+      int event = xml.next();
+      if (event == XMLStreamConstants.START_ELEMENT) depth++;
+      else if (event == XMLStreamConstants.END_ELEMENT) depth--;
+      else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA ||
+        event == XMLStreamConstants.SPACE) sb.append(xml.getText());
+    }
+    return sb.toString();
+  }
+}
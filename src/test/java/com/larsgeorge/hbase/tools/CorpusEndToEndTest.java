@@ -0,0 +1,126 @@
+package com.larsgeorge.hbase.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import com.beust.jcommander.JCommander;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs the differ and the finder end to end against a small generated corpus, checking their
+ * results against what the generator wrote, and that all modes of the finder agree.
+ */
+public class CorpusEndToEndTest {
+
+  private static final int NUM_VERSIONS = 4;
+  private static final int NUM_FILES = 150;
+  private static final int KEYS_PER_FILE = 10;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private CorpusGenerator generator;
+  private List<File> configs;
+  private File sources;
+  private int usages;
+
+  @Before
+  public void generateCorpus() throws Exception {
+    generator = new CorpusGenerator(42);
+    configs = generator.generateConfigs(folder.newFolder("conf"), 500, NUM_VERSIONS, 0.05, 0.03,
+      0.05, 0.02);
+    sources = folder.newFolder("src");
+    usages = generator.generateSources(sources, NUM_FILES, KEYS_PER_FILE);
+  }
+
+  private String diff(String... options) throws Exception {
+    List<String> args = new ArrayList<String>(Arrays.asList(options));
+    for (int v = 0; v < configs.size(); v++) {
+      args.add(configs.get(v).getPath());
+      args.add("v" + v);
+    }
+    DifferParameters params = new DifferParameters();
+    JCommander jc = new JCommander(params);
+    jc.parse(args.toArray(new String[args.size()]));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(bytes, true, "UTF-8");
+    new ConfigDiffer(params, out, null).execute();
+    out.close();
+    return bytes.toString("UTF-8");
+  }
+
+  private String find(File dir, String... options) throws Exception {
+    List<String> args = new ArrayList<String>(Arrays.asList("-d", dir.getPath(), "-s", "-u"));
+    args.addAll(Arrays.asList(options));
+    FindProperties fp = new FindProperties();
+    JCommander jc = new JCommander(fp);
+    jc.parse(args.toArray(new String[args.size()]));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(bytes, true, "UTF-8");
+    fp.setOut(out);
+    fp.execute();
+    out.close();
+    return bytes.toString("UTF-8");
+  }
+
+  private static List<String> lines(String output, String prefix) {
+    List<String> result = new ArrayList<String>();
+    for (String line : output.split("\n")) {
+      if (line.startsWith(prefix)) result.add(line);
+    }
+    return result;
+  }
+
+  @Test
+  public void testDifferReportsAllRenames() throws Exception {
+    assertTrue(generator.getNumRenames() > 0);
+    String output = diff("--renames", new File(folder.getRoot(), "conf/renames.properties")
+      .getPath());
+    assertEquals(generator.getNumRenames(), lines(output, "Renamed: ").size());
+  }
+
+  @Test
+  public void testFinderReportsAllKeys() throws Exception {
+    String output = find(sources);
+    SortedSet<String> keys = new TreeSet<String>();
+    // the unique keys come first, up to the statistics
+    for (String line : output.split("\n")) {
+      if (line.length() == 0) break;
+      keys.add(line);
+    }
+    assertEquals(generator.getUsedKeys(), keys);
+    assertEquals("Number of matches total: " + usages,
+      lines(output, "Number of matches total: ").get(0));
+  }
+
+  @Test
+  public void testFinderModesAgree() throws Exception {
+    String expected = find(sources);
+    assertEquals(expected, find(sources, "--spillThreshold", "100"));
+    assertEquals(expected, find(sources, "--shards", "3", "--shardDir",
+      folder.getRoot().getPath()));
+    assertEquals(expected, find(sources, "-p", "1"));
+  }
+
+  @Test
+  public void testChunkedScanAgrees() throws Exception {
+    // a single file of a few megabytes, scanned whole and in chunks of one megabyte
+    File large = folder.newFolder("large");
+    generator.generateSources(large, 1, 40000);
+    File[] files = new File(large, "org/example/module0").listFiles();
+    assertTrue(files[0].length() > 2 * 1024 * 1024);
+    assertEquals(find(large, "--chunkSize", "0"), find(large, "--chunkSize", "1"));
+  }
+}
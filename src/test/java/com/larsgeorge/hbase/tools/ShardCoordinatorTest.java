@@ -0,0 +1,79 @@
+package com.larsgeorge.hbase.tools;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.beust.jcommander.JCommander;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs the finder with several local worker processes, and compares the output with that of a
+ * single process.
+ */
+public class ShardCoordinatorTest {
+
+  // an expression with characters a shell would interpret, unless quoted
+  private static final String EXPRESSION = "\"(hbase\\.[a-z.]+[0-9]+)\"";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File sources;
+
+  @Before
+  public void generateCorpus() throws Exception {
+    CorpusGenerator generator = new CorpusGenerator(7);
+    generator.generateConfigs(folder.newFolder("conf"), 300, 3, 0.05, 0.05, 0.05, 0.02);
+    sources = folder.newFolder("src dir");
+    generator.generateSources(sources, 120, 10);
+  }
+
+  private String find(String... options) throws Exception {
+    List<String> args = new ArrayList<String>(Arrays.asList("-d", sources.getPath(), "-s",
+      "-u", "-e", EXPRESSION, "--shardDir", folder.getRoot().getPath()));
+    args.addAll(Arrays.asList(options));
+    FindProperties fp = new FindProperties();
+    JCommander jc = new JCommander(fp);
+    jc.parse(args.toArray(new String[args.size()]));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(bytes, true, "UTF-8");
+    fp.setOut(out);
+    fp.execute();
+    out.close();
+    return bytes.toString("UTF-8");
+  }
+
+  @Test
+  public void testShardsMatchSingleProcess() throws Exception {
+    String expected = find();
+    assertEquals(expected, find("--shards", "3"));
+    assertEquals(expected, find("--shards", "3", "--partition", "hash"));
+  }
+
+  @Test
+  public void testLauncherPassesQuotedCommand() throws Exception {
+    // behaves like ssh, which joins its arguments and has a shell split them again
+    String launcher = "sh -c 'eval \"$1\"' node{shard}";
+    assertEquals(find(), find("--shards", "3", "--shardLauncher", launcher));
+  }
+
+  @Test
+  public void testSplitCommand() {
+    assertEquals(Arrays.asList("ssh", "-o", "User=a b", "node\"1", "it's"),
+      ShardCoordinator.splitCommand(" ssh  -o 'User=a b' \"node\\\"1\" it\\'s "));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSplitCommandUnclosedQuote() {
+    ShardCoordinator.splitCommand("ssh 'node");
+  }
+}